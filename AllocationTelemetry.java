@@ -0,0 +1,350 @@
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure how much memory a simulation allocates in each step and each
+ * phase of a step, and how much heap it keeps per living animal.
+ *
+ * Allocation is read from the JVM's per-thread allocation counters
+ * (com.sun.management.ThreadMXBean). The figures for steps and phases
+ * count every thread, since the scent and intent phases run in parallel on
+ * the common pool; the simulation thread's own share is kept as well.
+ * Retained heap is the heap in use after the most recent garbage
+ * collection divided by the number of animals, so it costs nothing to
+ * keep up to date but only moves when the collector runs.
+ *
+ * A budget can be set for the bytes a step may allocate. A warning is
+ * printed when a step goes over it after one that did not.
+ *
+ * Run main() for a report comparing the field layouts: the object field,
+ * ChunkedField and OffHeapField.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class AllocationTelemetry {
+
+    private static final int PHASES = Simulator.PHASE_NAMES.length;
+
+    private final com.sun.management.ThreadMXBean threads; // null if not supported
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    private final long budgetBytes;
+
+    private long stepStart, phaseStart, threadStart;
+    private final long[] phaseTotal = new long[PHASES];
+    private final long[] phaseMax = new long[PHASES];
+    private final long[] phaseLast = new long[PHASES];
+    private long steps, totalBytes, maxBytes, lastBytes, lastThreadBytes, totalThreadBytes;
+    private long overBudgetSteps;
+    private boolean overBudget;
+    private double retainedPerAnimal;
+
+    /**
+     * Create telemetry with an allocation budget.
+     * @param budgetBytes The most a step should allocate, or 0 for no budget.
+     */
+    public AllocationTelemetry(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        else {
+            threads = null;
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                heapPools.add(pool);
+            }
+        }
+    }
+
+    /**
+     * @return true if the JVM can count allocated bytes; if not, every
+     *         allocation figure is zero.
+     */
+    public boolean isSupported() {
+        return threads != null;
+    }
+
+    /**
+     * Note the start of a step.
+     */
+    public void beginStep() {
+        if (threads != null) {
+            stepStart = threads.getTotalThreadAllocatedBytes();
+            phaseStart = stepStart;
+            threadStart = threads.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    /**
+     * Note the end of a phase of the step.
+     * @param phase The phase, one of Simulator's phase numbers.
+     */
+    public void phaseDone(int phase) {
+        if (threads != null) {
+            long now = threads.getTotalThreadAllocatedBytes();
+            long bytes = now - phaseStart;
+            phaseStart = now;
+            phaseLast[phase] = bytes;
+            phaseTotal[phase] += bytes;
+            phaseMax[phase] = Math.max(phaseMax[phase], bytes);
+        }
+    }
+
+    /**
+     * Note the end of a step, and warn if it went over the budget.
+     * @param step The step.
+     * @param animals The number of living animals.
+     */
+    public void endStep(int step, int animals) {
+        if (threads != null) {
+            lastBytes = threads.getTotalThreadAllocatedBytes() - stepStart;
+            lastThreadBytes = threads.getCurrentThreadAllocatedBytes() - threadStart;
+        }
+        steps++;
+        totalBytes += lastBytes;
+        totalThreadBytes += lastThreadBytes;
+        maxBytes = Math.max(maxBytes, lastBytes);
+        boolean over = budgetBytes > 0 && lastBytes > budgetBytes;
+        if (over) {
+            overBudgetSteps++;
+            if (!overBudget) {
+                System.err.printf("Warning: step %d allocated %d bytes, over the budget of %d%n",
+                                  step, lastBytes, budgetBytes);
+            }
+        }
+        overBudget = over;
+        retainedPerAnimal = animals == 0 ? 0 : (double) heapAfterCollection() / animals;
+    }
+
+    /**
+     * @return The heap in use just after the last garbage collection.
+     */
+    private long heapAfterCollection() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return The allocation budget of a step, or 0 for none.
+     */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * @return The number of steps measured.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return The bytes allocated by the last step.
+     */
+    public long getLastStepBytes() {
+        return lastBytes;
+    }
+
+    /**
+     * @return The mean bytes allocated per step.
+     */
+    public double getMeanStepBytes() {
+        return steps == 0 ? 0 : (double) totalBytes / steps;
+    }
+
+    /**
+     * @return The most bytes allocated by one step.
+     */
+    public long getMaxStepBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The mean bytes per step allocated by the simulation thread
+     *         itself, leaving out the threads of parallel phases.
+     */
+    public double getMeanThreadBytes() {
+        return steps == 0 ? 0 : (double) totalThreadBytes / steps;
+    }
+
+    /**
+     * @param phase One of Simulator's phase numbers.
+     * @return The bytes allocated by the phase in the last step.
+     */
+    public long getLastPhaseBytes(int phase) {
+        return phaseLast[phase];
+    }
+
+    /**
+     * @param phase One of Simulator's phase numbers.
+     * @return The mean bytes allocated by the phase per step.
+     */
+    public double getMeanPhaseBytes(int phase) {
+        return steps == 0 ? 0 : (double) phaseTotal[phase] / steps;
+    }
+
+    /**
+     * @param phase One of Simulator's phase numbers.
+     * @return The most bytes allocated by the phase in one step.
+     */
+    public long getMaxPhaseBytes(int phase) {
+        return phaseMax[phase];
+    }
+
+    /**
+     * @return The number of steps that went over the budget.
+     */
+    public long getOverBudgetSteps() {
+        return overBudgetSteps;
+    }
+
+    /**
+     * @return The heap in use after the last garbage collection per living
+     *         animal, as of the last step.
+     */
+    public double getRetainedBytesPerAnimal() {
+        return retainedPerAnimal;
+    }
+
+    /**
+     * Return a summary of the figures, one line per phase.
+     */
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("steps=%d bytes/step mean=%.0f max=%d (simulation thread %.0f)"
+                                 + " over budget=%d retained/animal=%.0f%n",
+                                 steps, getMeanStepBytes(), maxBytes, getMeanThreadBytes(),
+                                 overBudgetSteps, retainedPerAnimal));
+        for (int phase = 0; phase < PHASES; phase++) {
+            out.append(String.format("  %-8s mean=%.0f max=%d%n", Simulator.PHASE_NAMES[phase],
+                                     getMeanPhaseBytes(phase), phaseMax[phase]));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Measure the heap one animal of a species keeps alive, by creating
+     * many of them in an otherwise empty field.
+     * @param species The species.
+     * @param count How many animals to create.
+     * @return The retained bytes per animal.
+     */
+    public static double measureSpeciesBytes(Species species, int count) {
+        int side = (int) Math.ceil(Math.sqrt(count));
+        Field field = new Field(side, side);
+        Animal[] animals = new Animal[count];
+        long before = usedAfterGc();
+        for (int i = 0; i < count; i++) {
+            animals[i] = species.create(field, new Location(i / side, i % side));
+        }
+        long after = usedAfterGc();
+        Reference.reachabilityFence(animals);
+        Reference.reachabilityFence(field);
+        return (double) (after - before) / count;
+    }
+
+    /**
+     * Collect garbage and return the heap in use.
+     */
+    private static long usedAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return The memory in use outside the heap by direct buffers and
+     *         native segments.
+     */
+    private static long directBytes() {
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            used += pool.getMemoryUsed();
+        }
+        return used;
+    }
+
+    /**
+     * Print a report comparing the allocation and memory use of the field
+     * layouts, and the retained heap of each species. Every layout runs
+     * the same world, started from the same seed.
+     * @param args depth, width, number of steps, the allocation budget
+     *             of a step in bytes and the random seed.
+     */
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        long budget = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1111;
+
+        System.out.printf("%dx%d field, %d steps%n%n", depth, width, steps);
+        System.out.printf("%-9s %13s %13s %12s %12s %12s %12s %12s%n", "layout", "bytes/step",
+                          "max/step", "over budget", "animals", "heap/animal", "heap total",
+                          "off-heap");
+        String[] layouts = { "object", "chunked", "off-heap" };
+        for (String layout : layouts) {
+            Field field;
+            if (layout.equals("chunked")) {
+                field = new ChunkedField(depth, width);
+            }
+            else if (layout.equals("off-heap")) {
+                field = new OffHeapField(depth, width);
+            }
+            else {
+                field = new Field(depth, width);
+            }
+            Randomizer.reset(seed);
+            Simulator simulator = new Simulator(field);
+            AllocationTelemetry telemetry = simulator.enableAllocationTelemetry(budget);
+            for (int i = 0; i < steps; i++) {
+                simulator.simulateOneStep();
+            }
+            int animals = simulator.getDiseasePass().getPopulation();
+            // What the simulation retains is what is freed when it is dropped.
+            long heap = usedAfterGc();
+            long direct = directBytes();
+            if (field instanceof OffHeapField) {
+                ((OffHeapField) field).close();
+            }
+            Reference.reachabilityFence(simulator);
+            simulator = null;
+            field = null;
+            heap -= usedAfterGc();
+            direct -= directBytes();
+            System.out.printf("%-9s %13.0f %13d %12d %12d %12.0f %12d %12d%n", layout,
+                              telemetry.getMeanStepBytes(), telemetry.getMaxStepBytes(),
+                              telemetry.getOverBudgetSteps(), animals,
+                              animals == 0 ? 0.0 : (double) heap / animals, heap, direct);
+            for (int phase = 0; phase < PHASES; phase++) {
+                System.out.printf("  %-7s %13.0f %13d%n", Simulator.PHASE_NAMES[phase],
+                                  telemetry.getMeanPhaseBytes(phase), telemetry.getMaxPhaseBytes(phase));
+            }
+        }
+
+        System.out.printf("%n%-9s %12s%n", "species", "heap/animal");
+        for (Species species : Species.values()) {
+            System.out.printf("%-9s %12.0f%n", species.name(), measureSpeciesBytes(species, 20000));
+        }
+    }
+}
@@ -12,7 +12,7 @@ import java.util.Random;
 public abstract class Animal {
     
     // Random generator for mutations and gene generation
-    public static final Random rand = new Random();
+    public static final Random rand = Randomizer.getRandom();
     
     // Genetic attributes
     private String gene; // A 14-digit string representing genetic information
@@ -33,6 +33,10 @@ public abstract class Animal {
     private boolean isSick;
     private int sicknessDuration;
     private static final int MAX_SICKNESS_DURATION = 10; // Duration of sickness in steps    
+    // Slot given to the animal by fields that keep it outside an object grid
+    int handle;
+    // Id given to the animal by a LineageStore; 0 if untracked
+    long lineageId;
 
     
     /**
@@ -51,8 +55,9 @@ public abstract class Animal {
         this.isMale = rand.nextBoolean(); // Randomly assign a gender
         parseGene(this.gene); // the gene string is parsed into the stats
         this.age = 0;
-        this.isSick = Math.random() < this.animalsDiseaseProbability;
+        this.isSick = rand.nextDouble() < this.animalsDiseaseProbability;
         this.sicknessDuration = isSick ? MAX_SICKNESS_DURATION : 0;
+        field.animalBorn(this);
     }
     
     public Animal(Field field, Location location, Color col, String gene, boolean isMale) {
@@ -65,10 +70,39 @@ public abstract class Animal {
         this.isMale = isMale;
         parseGene(this.gene);
         this.age = 0;
-        this.isSick = Math.random() < this.animalsDiseaseProbability;
+        this.isSick = rand.nextDouble() < this.animalsDiseaseProbability;
         this.sicknessDuration = isSick ? MAX_SICKNESS_DURATION : 0;
+        field.animalBorn(this);
     }
-        
+
+    /**
+     * Create a copy of an animal from its genes and state, such as one
+     * held by another process. Nothing is drawn at random.
+     *
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param gene The animal's gene string.
+     * @param isMale true for a male.
+     * @param age The age.
+     * @param foodLevel The food level.
+     * @param sicknessDuration Steps of sickness left, 0 if healthy.
+     */
+    public Animal(Field field, Location location, Color col, String gene, boolean isMale,
+                  int age, int foodLevel, int sicknessDuration) {
+        alive = true;
+        this.field = field;
+        this.gene = gene;
+        this.isMale = isMale;
+        parseGene(this.gene);
+        this.age = age;
+        this.foodLevel = foodLevel;
+        this.isSick = sicknessDuration > 0;
+        this.sicknessDuration = sicknessDuration;
+        setLocation(location);
+        setColor(col);
+        field.animalBorn(this);
+    }
+
     /**
      * Check whether the animal is alive or not.
      * @return true if the animal is still alive.
@@ -95,6 +129,7 @@ public abstract class Animal {
         if (location != null) {
             field.clear(location);
             field.place(new Plant(), location.getRow(), location.getCol()); // Replace with a plant
+            field.animalDied(this);
             location = null;
             field = null;
         }
@@ -107,6 +142,9 @@ public abstract class Animal {
         } else {
             age += 1; // Healthy animals have normal aging
         }
+        if (field != null) {
+            field.animalAged(this);
+        }
 
         // Check if the animal has exceeded its maximum age
         if (age > getMaxAge()) {
@@ -136,7 +174,6 @@ public abstract class Animal {
     }
     
     private String generateRandomGene() {
-        Random rand = new Random();
         StringBuilder geneBuilder = new StringBuilder();
         for (int i = 0; i < 14; i++) {
             geneBuilder.append(rand.nextInt(10)); // Rand digit 0-9
@@ -153,11 +190,12 @@ public abstract class Animal {
         String childGene = parent1Gene + parent2Gene;
         childGene = mutateGene(childGene);
 
-        return createOffspring(field, location, childGene);
+        Animal young = createOffspring(field, location, childGene);
+        field.animalBred(young, this);
+        return young;
     }
     
     private String mutateGene(String gene) {
-        Random rand = new Random();
         StringBuilder mutatedGene = new StringBuilder(gene);
         for (int i = 0; i < gene.length(); i++) {
             if (rand.nextDouble() < 0.1) { // 10% chance  mutation
@@ -177,6 +215,61 @@ public abstract class Animal {
         return maxAge; // Will be overridden by subclasses with species-specific values
     }
 
+    /**
+     * @return The animal's gene string.
+     */
+    public String getGene() {
+        return gene;
+    }
+
+    /**
+     * @return true if the animal is male.
+     */
+    public boolean isMale() {
+        return isMale;
+    }
+
+    /**
+     * @return The animal's current food level.
+     */
+    public int getFoodLevel() {
+        return foodLevel;
+    }
+
+    /**
+     * @return The number of steps of sickness left, 0 if healthy.
+     */
+    public int getSicknessDuration() {
+        return sicknessDuration;
+    }
+
+    /**
+     * Give the animal the age, food level and sickness of an animal it is
+     * a copy of, such as one that has migrated from another process.
+     * @param age The age.
+     * @param foodLevel The food level.
+     * @param sicknessDuration Steps of sickness left, 0 if healthy.
+     */
+    public void restoreState(int age, int foodLevel, int sicknessDuration) {
+        this.age = age;
+        this.foodLevel = foodLevel;
+        boolean wasSick = isSick;
+        this.isSick = sicknessDuration > 0;
+        this.sicknessDuration = sicknessDuration;
+        if (field != null) {
+            if (isSick && !wasSick) {
+                field.animalInfected(this);
+            }
+            else if (wasSick && !isSick) {
+                field.animalRecovered(this);
+            }
+            else {
+                field.animalChanged(this);
+            }
+            field.animalAged(this);
+        }
+    }
+
     
     /**
      * Return the animal's location.
@@ -185,7 +278,34 @@ public abstract class Animal {
     protected Location getLocation() {
         return location;
     }
-    
+
+    /**
+     * Choose a free adjacent location to move to. Without scent layers the
+     * choice is random. With them, predators head for the strongest scent
+     * of prey, and prey for plants and away from predators.
+     * @return The location, or null if all adjacent cells are taken.
+     */
+    protected Location findFreeLocation() {
+        ScentField scent = field.getScentField();
+        if (scent == null) {
+            return field.getFreeAdjacentLocation(location);
+        }
+        Location best = null;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (Location next : field.getFreeAdjacentLocations(location)) { // shuffled, so ties are random
+            int row = next.getRow();
+            int col = next.getCol();
+            float score = isPredator() ? scent.getScentOf(false, row, col)
+                                       : scent.get(ScentField.PLANTS, row, col)
+                                         - scent.getScentOf(true, row, col);
+            if (score > bestScore) {
+                best = next;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
     /**
      * Place the animal at the new location in the given field.
      * @param newLocation The animal's new location.
@@ -209,20 +329,8 @@ public abstract class Animal {
     public void becomeSick() {
         isSick = true;
         sicknessDuration = MAX_SICKNESS_DURATION;
-    }
-
-    public void spreadDisease() {
-        if (!isAlive() || field == null) {
-            return; // Do not spread disease if the animal is dead or field is null
-        }
-
-        List<Animal> neighbors = field.getLivingNeighbours(getLocation());
-        for (Animal neighbor : neighbors) {
-            if (neighbor != null && neighbor.getClass() == this.getClass() && !neighbor.isSick()) {
-                if (Math.random() < 0.3) { // a 30% chance to infect nearby animals
-                neighbor.becomeSick();
-                }
-            }
+        if (field != null) {
+            field.animalInfected(this);
         }
     }
 
@@ -231,6 +339,9 @@ public abstract class Animal {
             sicknessDuration--;
             if (sicknessDuration <= 0) { // Recover after sickness duration ends
                 isSick = false; // deactivate sickness efects
+                if (field != null) {
+                    field.animalRecovered(this);
+                }
             }
         }
     }
@@ -269,6 +380,31 @@ public abstract class Animal {
         return color;
     }   
     
+    /**
+     * Make the animal more hungry. Only animals that hunt get hungry;
+     * the others have nothing to do.
+     */
+    protected void incrementHunger() {
+    }
+
+    /**
+     * Return the food level of a well-fed animal of this kind. An animal
+     * with 3 or fewer below this does not hunt.
+     * @return The full food level, or 0 for animals that do not hunt.
+     */
+    public int getFullFoodLevel() {
+        return 0;
+    }
+
+    /**
+     * Determine whether this animal hunts other animals, as its species
+     * says.
+     * @return true for predators.
+     */
+    public boolean isPredator() {
+        return Species.of(this).isPredator();
+    }
+
     /**
      * Return the food value of animal.
      * By default, animals have 0 food value unless overridden.
@@ -17,7 +17,6 @@ public class Bear extends Animal {
     private static final int PREY_FOOD_VALUE = 15;
     private static final Random rand = Randomizer.getRandom();
     
-    private int foodLevel;
     
     
     /**
@@ -39,12 +38,18 @@ public class Bear extends Animal {
             age = 0;
             foodLevel = PREY_FOOD_VALUE; //15
         }
+        field.animalAged(this);
     }
     
     public Bear(Field field, Location location, Color color, String gene, boolean isMale) {
             super(field, location, color, gene, isMale);
     }
 
+    public Bear(Field field, Location location, Color color, String gene, boolean isMale,
+                int age, int foodLevel, int sicknessDuration) {
+            super(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+    }
+
     
     /**
      * This is what the Bear does most of the time: it hunts for
@@ -59,7 +64,6 @@ public class Bear extends Animal {
         incrementHunger();
 
         if (isAlive()) {
-            spreadDisease(); // Only spread disease if the animal is still alive
             giveBirth(newBears); // Attempt to reproduce
 
             // Move towards a source of food if found
@@ -67,12 +71,13 @@ public class Bear extends Animal {
         
         if (newLocation == null) {
             // if thee isnt any food then move to a free location
-            newLocation = getField().getFreeAdjacentLocation(getLocation());
+            newLocation = findFreeLocation();
         }
 
         if (newLocation != null) {
             setLocation(newLocation); // Move to the new location
         } else {
+            FlightEvents.overcrowded(this);
             setDead(); // will die if theres overcrowding 
             }
         }
@@ -82,13 +87,22 @@ public class Bear extends Animal {
     /**
      * Make this Bear more hungry. This could result in the Bear's death.
      */
-    private void incrementHunger() {
+    @Override
+    protected void incrementHunger() {
         foodLevel--;
+        if (isAlive()) {
+            getField().animalAged(this);
+        }
         if(foodLevel <= 0) {
             setDead();
         }
     }
     
+    @Override
+    public int getFullFoodLevel() {
+        return PREY_FOOD_VALUE;
+    }
+
     @Override
     protected int getMaxAge() {
         return maxAge; // Use the species-specific max age
@@ -114,6 +128,7 @@ public class Bear extends Animal {
                 if (animal.isAlive()) {
                     animal.setDead();
                     foodLevel = animal.getTheFoodValue(); // Consume prey and gain food units
+                    field.animalAged(this);
                     // Place a plant at the eaten prey's location immediately
                     field.place(new Plant(), where.getRow(), where.getCol());
                     return where;
@@ -133,11 +148,13 @@ public class Bear extends Animal {
         Field field = getField();
         List<Location> free = field.getFreeAdjacentLocations(getLocation());
         int births = breed(); // Uses genetically defined breeding probability and litter size
+        int room = free.size();
         for (int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
             Bear young = (Bear) this.mateWith(this, field, loc); // Uses genetic crossover
             newBears.add(young);
         }
+        FlightEvents.litter(this, births, Math.min(births, room));
     }   
 
     
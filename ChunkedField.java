@@ -0,0 +1,263 @@
+import java.util.Arrays;
+
+/**
+ * A field for very large worlds that keeps its cells in fixed-size
+ * square chunks instead of two dense grids.
+ *
+ * Chunks are only allocated once something is written into them. A chunk
+ * that holds no animals and is either completely empty or completely
+ * covered in plants is collapsed back to one of two shared sentinel
+ * chunks, so the memory used grows with the occupied area of the world
+ * rather than with its size. Cell lookups are a shift and a mask into the
+ * chunk directory, so neighbour queries that cross a chunk border cost the
+ * same as ones that do not.
+ *
+ * @author David J. Barnes, Michael Kölling & Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class ChunkedField extends Field {
+
+    private static final int CHUNK_SHIFT = 6; // 64x64 cells per chunk
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+
+    // Plants carry no state of their own, so one instance serves every cell.
+    private static final Plant PLANT = new Plant();
+
+    // Shared read-only chunks standing in for every empty or all-plant chunk.
+    private static final Chunk EMPTY = new Chunk();
+    private static final Chunk PLANTED = new Chunk();
+
+    private final int chunkRows, chunkCols;
+    private final Chunk[] chunks;
+
+    /**
+     * Represent a chunked field of the given dimensions. Every chunk starts
+     * out as the shared empty chunk.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public ChunkedField(int depth, int width) {
+        super(depth, width, false);
+        chunkRows = (depth + CHUNK_MASK) >> CHUNK_SHIFT;
+        chunkCols = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        chunks = new Chunk[chunkRows * chunkCols];
+        clear();
+    }
+
+    /**
+     * Release every allocated chunk.
+     */
+    @Override
+    protected void clearCells() {
+        Arrays.fill(chunks, EMPTY);
+    }
+
+    @Override
+    public Animal getObjectAt(int row, int col) {
+        Animal[] animals = chunks[chunkIndex(row, col)].animals;
+        return animals == null ? null : animals[cellIndex(row, col)];
+    }
+
+    @Override
+    public Plant getPlantAt(int row, int col) {
+        Chunk chunk = chunks[chunkIndex(row, col)];
+        if (chunk == EMPTY) {
+            return null;
+        }
+        if (chunk == PLANTED) {
+            return PLANT;
+        }
+        int cell = cellIndex(row, col);
+        return (chunk.plants[cell >> 6] & (1L << cell)) != 0 ? PLANT : null;
+    }
+
+    @Override
+    protected void setObjectAt(int row, int col, Animal animal) {
+        int index = chunkIndex(row, col);
+        Chunk chunk = chunks[index];
+        if (animal == null && chunk.animals == null) {
+            return; // nothing to remove, and no need to materialise a sentinel
+        }
+        chunk = writable(index);
+        if (chunk.animals == null) {
+            chunk.animals = new Animal[CHUNK_CELLS];
+        }
+        int cell = cellIndex(row, col);
+        Animal old = chunk.animals[cell];
+        chunk.animals[cell] = animal;
+        if (old == null && animal != null) {
+            chunk.animalCount++;
+        }
+        else if (old != null && animal == null) {
+            chunk.animalCount--;
+            if (chunk.animalCount == 0) {
+                chunk.animals = null;
+                collapse(index);
+            }
+        }
+    }
+
+    @Override
+    protected void setPlantAt(int row, int col, Plant plant) {
+        int index = chunkIndex(row, col);
+        Chunk chunk = chunks[index];
+        if ((plant == null && chunk == EMPTY) || (plant != null && chunk == PLANTED)) {
+            return;
+        }
+        chunk = writable(index);
+        int cell = cellIndex(row, col);
+        long bit = 1L << cell;
+        boolean had = (chunk.plants[cell >> 6] & bit) != 0;
+        if (plant != null && !had) {
+            chunk.plants[cell >> 6] |= bit;
+            chunk.plantCount++;
+            collapse(index);
+        }
+        else if (plant == null && had) {
+            chunk.plants[cell >> 6] &= ~bit;
+            chunk.plantCount--;
+            collapse(index);
+        }
+    }
+
+    /**
+     * Grow a plant in every cell holding neither an animal nor a plant.
+     * Empty chunks are switched to the shared planted chunk without
+     * touching their cells.
+     */
+    @Override
+    public void growPlants() {
+        for (int index = 0; index < chunks.length; index++) {
+            Chunk chunk = chunks[index];
+            if (chunk == PLANTED) {
+                continue;
+            }
+            int rowBase = (index / chunkCols) << CHUNK_SHIFT;
+            int colBase = (index % chunkCols) << CHUNK_SHIFT;
+            int rows = Math.min(CHUNK_SIZE, getDepth() - rowBase);
+            int cols = Math.min(CHUNK_SIZE, getWidth() - colBase);
+            if (chunk == EMPTY) {
+                chunks[index] = PLANTED;
+            }
+            else {
+                for (int r = 0; r < rows; r++) {
+                    for (int c = 0; c < cols; c++) {
+                        int cell = (r << CHUNK_SHIFT) | c;
+                        long bit = 1L << cell;
+                        if ((chunk.animals == null || chunk.animals[cell] == null)
+                                && (chunk.plants[cell >> 6] & bit) == 0) {
+                            chunk.plants[cell >> 6] |= bit;
+                            chunk.plantCount++;
+                        }
+                    }
+                }
+                collapse(index);
+            }
+            plantsGrown(rowBase, rowBase + rows, colBase, colBase + cols);
+        }
+    }
+
+    /**
+     * Return the number of chunks that currently have storage of their
+     * own, i.e. are neither empty nor entirely covered in plants.
+     * @return The number of allocated chunks.
+     */
+    public int getAllocatedChunkCount() {
+        int count = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk != EMPTY && chunk != PLANTED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of chunks in the field.
+     * @return The size of the chunk directory.
+     */
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    /**
+     * Return the chunk at the given index, first replacing a shared
+     * sentinel with a private copy of its contents.
+     */
+    private Chunk writable(int index) {
+        Chunk chunk = chunks[index];
+        if (chunk == EMPTY || chunk == PLANTED) {
+            Chunk copy = new Chunk();
+            copy.plants = new long[CHUNK_CELLS / 64];
+            if (chunk == PLANTED) {
+                fillPlants(copy, index);
+            }
+            chunks[index] = copy;
+            return copy;
+        }
+        return chunk;
+    }
+
+    /**
+     * Put a plant in every cell of the chunk that lies inside the field.
+     */
+    private void fillPlants(Chunk chunk, int index) {
+        int rows = Math.min(CHUNK_SIZE, getDepth() - ((index / chunkCols) << CHUNK_SHIFT));
+        int cols = Math.min(CHUNK_SIZE, getWidth() - ((index % chunkCols) << CHUNK_SHIFT));
+        long rowBits = cols == 64 ? -1L : (1L << cols) - 1;
+        for (int r = 0; r < rows; r++) {
+            chunk.plants[r] = rowBits;
+        }
+        chunk.plantCount = rows * cols;
+    }
+
+    /**
+     * Replace the chunk at the given index by a shared sentinel if it no
+     * longer holds anything a sentinel cannot represent.
+     */
+    private void collapse(int index) {
+        Chunk chunk = chunks[index];
+        if (chunk.animalCount != 0) {
+            return;
+        }
+        if (chunk.plantCount == 0) {
+            chunks[index] = EMPTY;
+        }
+        else if (chunk.plantCount == cellsIn(index)) {
+            chunks[index] = PLANTED;
+        }
+    }
+
+    /**
+     * Return the number of cells of a chunk that lie inside the field.
+     * Only chunks on the bottom and right edges hold fewer than a full
+     * chunk's worth.
+     */
+    private int cellsIn(int index) {
+        int rows = Math.min(CHUNK_SIZE, getDepth() - ((index / chunkCols) << CHUNK_SHIFT));
+        int cols = Math.min(CHUNK_SIZE, getWidth() - ((index % chunkCols) << CHUNK_SHIFT));
+        return rows * cols;
+    }
+
+    private int chunkIndex(int row, int col) {
+        return (row >> CHUNK_SHIFT) * chunkCols + (col >> CHUNK_SHIFT);
+    }
+
+    private static int cellIndex(int row, int col) {
+        return ((row & CHUNK_MASK) << CHUNK_SHIFT) | (col & CHUNK_MASK);
+    }
+
+    /**
+     * The contents of one chunk. The animal array is only allocated while
+     * the chunk holds at least one animal; plants are one bit per cell.
+     */
+    private static class Chunk {
+        Animal[] animals;
+        long[] plants;
+        int animalCount;
+        int plantCount;
+    }
+}
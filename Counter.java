@@ -44,6 +44,14 @@ public class Counter {
         count++;
     }
 
+    /**
+     * Increment the current count by the given amount.
+     * @param amount The amount to add.
+     */
+    public void increment(int amount) {
+        count += amount;
+    }
+
     /**
      * Reset the current count to zero.
      */
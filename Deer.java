@@ -18,22 +18,28 @@ public class Deer extends Animal {
             age = 0;
             foodlevel = 12; // Start with a full food level for a deer 
         }
+        field.animalAged(this);
     }
     
     public Deer(Field field, Location location, Color color, String gene, boolean isMale) {
             super(field, location, color, gene, isMale);
         }
+
+    public Deer(Field field, Location location, Color color, String gene, boolean isMale,
+                int age, int foodLevel, int sicknessDuration) {
+            super(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+        }
         
     public void act(List<Animal> newDeer) {
         incrementAge();
         updateSickness(); // Handle sickness duration
-        spreadDisease(); // Spread disease to nearby animals
         if (isAlive()) {
             giveBirth(newDeer);
-            Location newLocation = getField().getFreeAdjacentLocation(getLocation());
+            Location newLocation = findFreeLocation();
             if (newLocation != null) {
                 setLocation(newLocation);
             } else {
+                FlightEvents.overcrowded(this);
                 setDead(); // if overcrowding
             }
         }
@@ -49,11 +55,13 @@ public class Deer extends Animal {
         Field field = getField();
         List<Location> free = field.getFreeAdjacentLocations(getLocation());
         int births = breed(); // Uses genetically defined breeding probability and litter size
+        int room = free.size();
         for (int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
             Deer young = (Deer) this.mateWith(this, field, loc); // Uses genetic crossover
             newDeers.add(young);
         }
+        FlightEvents.litter(this, births, Math.min(births, room));
     }
 
     @Override
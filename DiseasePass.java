@@ -0,0 +1,360 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Spread disease through a field once per step, and keep track of how
+ * the epidemic is going.
+ *
+ * The pass keeps the set of infected animals (the "frontier") up to date
+ * by listening to the field, so spreading only visits the neighbourhoods
+ * of sick animals instead of every animal in the field. An infected
+ * animal gives the disease to each healthy neighbour of its own species
+ * with a 30% chance per step. Animals that recover, die or leave the
+ * field drop out of the frontier. Under an intent engine each chance of
+ * infection is drawn from the engine by step and cells, so the spread
+ * does not depend on the order of the frontier either.
+ *
+ * For every species the pass counts susceptible, infected and recovered
+ * animals (S, I and R), and estimates the effective reproduction number:
+ * the new infections per infected animal per step, times the mean number
+ * of steps an animal stays infectious.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class DiseasePass implements FieldListener {
+
+    private static final double INFECTION_PROBABILITY = 0.3;
+    // Infectious period assumed until one has been observed.
+    private static final double DEFAULT_PERIOD = 10;
+    // Weight of the latest step in the smoothed reproduction number.
+    private static final double SMOOTHING = 0.2;
+    private static final int CODES = 8;
+
+    private final Field field;
+    private IntentEngine draws; // null to draw from the shared generator
+    // Infected animals, with the step they fell sick, in infection order.
+    private final Map<Animal, Integer> frontier = new LinkedHashMap<>();
+    private final Set<Animal> recovered = new HashSet<>();
+    private final List<Animal> newlyInfected = new ArrayList<>();
+    private final long[] cells = new long[8];
+
+    private final int[] population = new int[CODES];
+    private final int[] infected = new int[CODES];
+    private final int[] recoveredCount = new int[CODES];
+    private final long[] totalInfections = new long[CODES];
+    private final long[] totalRecoveries = new long[CODES];
+    private final long[] infectedDeaths = new long[CODES];
+    private final long[] periodSum = new long[CODES];
+    private final long[] periodCount = new long[CODES];
+    private final double[] rEff = new double[CODES];
+    private double overallREff;
+    private int step;
+
+    /**
+     * Create a disease pass for a field and start listening to it.
+     * @param field The field whose animals the disease spreads among.
+     */
+    public DiseasePass(Field field) {
+        this.field = field;
+        field.addListener(this);
+    }
+
+    /**
+     * Forget all animals and figures, as when the field is repopulated.
+     */
+    public void reset() {
+        frontier.clear();
+        recovered.clear();
+        newlyInfected.clear();
+        for (int code = 0; code < CODES; code++) {
+            population[code] = 0;
+            infected[code] = 0;
+            recoveredCount[code] = 0;
+            totalInfections[code] = 0;
+            totalRecoveries[code] = 0;
+            infectedDeaths[code] = 0;
+            periodSum[code] = 0;
+            periodCount[code] = 0;
+            rEff[code] = 0;
+        }
+        overallREff = 0;
+        step = 0;
+    }
+
+    /**
+     * Choose where the chances of infection are drawn from.
+     * @param engine An intent engine, whose chance() is used for every
+     *               pair of animals, or null to use the shared generator.
+     */
+    public void setIntentEngine(IntentEngine engine) {
+        draws = engine;
+    }
+
+    /**
+     * Start tracking animals that were already in the field before the
+     * pass was created, such as those of a resumed simulation.
+     * @param animals The animals.
+     */
+    public void track(List<Animal> animals) {
+        for (Animal animal : animals) {
+            if (animal != null && animal.isAlive()) {
+                animalBorn(animal);
+            }
+        }
+    }
+
+    /**
+     * Spread the disease from every infected animal to its neighbours.
+     * @param step The step being run.
+     */
+    public void spread(int step) {
+        this.step = step;
+        int[] sources = new int[CODES];
+        int[] infections = new int[CODES];
+        Random rand = Randomizer.getRandom();
+
+        for (Iterator<Animal> it = frontier.keySet().iterator(); it.hasNext(); ) {
+            Animal animal = it.next();
+            Location location = animal.getLocation();
+            // Ghosts and migrants can leave a field without dying in it.
+            if (!animal.isAlive() || !animal.isSick() || location == null
+                    || field.getObjectAt(location) != animal) {
+                it.remove();
+                infected[Species.of(animal).getCode()]--;
+                continue;
+            }
+            int code = Species.of(animal).getCode();
+            sources[code]++;
+            int width = field.getWidth();
+            long here = (long) location.getRow() * width + location.getCol();
+            int count = field.adjacentCells(location.getRow(), location.getCol(), cells);
+            for (int i = 0; i < count; i++) {
+                Animal neighbour = field.getObjectAt((int) (cells[i] / width), (int) (cells[i] % width));
+                if (neighbour != null && neighbour.getClass() == animal.getClass()
+                        && neighbour.isAlive() && !neighbour.isSick()
+                        && (draws != null ? draws.chance(step, here, cells[i], width) : rand.nextDouble())
+                           < INFECTION_PROBABILITY) {
+                    newlyInfected.add(neighbour);
+                    infections[code]++;
+                }
+            }
+        }
+        // Infect afterwards, so the frontier is not changed while walked.
+        for (Animal animal : newlyInfected) {
+            if (animal.isAlive() && !animal.isSick()) {
+                animal.becomeSick();
+            }
+        }
+        newlyInfected.clear();
+        estimate(sources, infections);
+    }
+
+    /**
+     * Update the smoothed reproduction numbers from one step's spreading.
+     */
+    private void estimate(int[] sources, int[] infections) {
+        int allSources = 0;
+        int allInfections = 0;
+        long allPeriods = 0;
+        long allCounts = 0;
+        for (int code = 0; code < CODES; code++) {
+            allSources += sources[code];
+            allInfections += infections[code];
+            allPeriods += periodSum[code];
+            allCounts += periodCount[code];
+            if (sources[code] > 0) {
+                double latest = (double) infections[code] / sources[code]
+                                * meanPeriod(periodSum[code], periodCount[code]);
+                rEff[code] += SMOOTHING * (latest - rEff[code]);
+            }
+        }
+        if (allSources > 0) {
+            double latest = (double) allInfections / allSources * meanPeriod(allPeriods, allCounts);
+            overallREff += SMOOTHING * (latest - overallREff);
+        }
+    }
+
+    private static double meanPeriod(long sum, long count) {
+        return count == 0 ? DEFAULT_PERIOD : (double) sum / count;
+    }
+
+    @Override
+    public void animalBorn(Animal animal) {
+        int code = Species.of(animal).getCode();
+        population[code]++;
+        if (animal.isSick()) {
+            animalInfected(animal);
+        }
+    }
+
+    @Override
+    public void animalInfected(Animal animal) {
+        int code = Species.of(animal).getCode();
+        if (frontier.putIfAbsent(animal, step) == null) {
+            infected[code]++;
+            totalInfections[code]++;
+            if (recovered.remove(animal)) {
+                recoveredCount[code]--;
+            }
+        }
+    }
+
+    @Override
+    public void animalRecovered(Animal animal) {
+        int code = Species.of(animal).getCode();
+        Integer since = frontier.remove(animal);
+        if (since != null) {
+            infected[code]--;
+            totalRecoveries[code]++;
+            periodSum[code] += step - since;
+            periodCount[code]++;
+        }
+        if (recovered.add(animal)) {
+            recoveredCount[code]++;
+        }
+    }
+
+    @Override
+    public void animalDied(Animal animal) {
+        int code = Species.of(animal).getCode();
+        population[code]--;
+        Integer since = frontier.remove(animal);
+        if (since != null) {
+            infected[code]--;
+            infectedDeaths[code]++;
+            periodSum[code] += step - since;
+            periodCount[code]++;
+        }
+        if (recovered.remove(animal)) {
+            recoveredCount[code]--;
+        }
+    }
+
+    /**
+     * @return The number of infected animals being tracked.
+     */
+    public int getFrontierSize() {
+        return frontier.size();
+    }
+
+    /**
+     * @param species The species.
+     * @return The number of living animals of the species that have never
+     *         been infected, or have been reinfected and recovered again.
+     */
+    public int getSusceptible(Species species) {
+        int code = species.getCode();
+        return Math.max(0, population[code] - infected[code] - recoveredCount[code]);
+    }
+
+    /**
+     * @param species The species.
+     * @return The number of living animals of the species.
+     */
+    public int getPopulation(Species species) {
+        return population[species.getCode()];
+    }
+
+    /**
+     * @return The number of living animals of every species.
+     */
+    public int getPopulation() {
+        int total = 0;
+        for (int count : population) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @param species The species.
+     * @return The number of living infected animals of the species.
+     */
+    public int getInfected(Species species) {
+        return infected[species.getCode()];
+    }
+
+    /**
+     * @return The number of living infected animals of every species.
+     */
+    public int getInfected() {
+        int total = 0;
+        for (int count : infected) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @param species The species.
+     * @return The number of living animals of the species that have
+     *         recovered. Recovered animals can be infected again.
+     */
+    public int getRecovered(Species species) {
+        return recoveredCount[species.getCode()];
+    }
+
+    /**
+     * @param species The species.
+     * @return The number of infections of the species since the reset.
+     */
+    public long getTotalInfections(Species species) {
+        return totalInfections[species.getCode()];
+    }
+
+    /**
+     * @param species The species.
+     * @return The number of recoveries of the species since the reset.
+     */
+    public long getTotalRecoveries(Species species) {
+        return totalRecoveries[species.getCode()];
+    }
+
+    /**
+     * @param species The species.
+     * @return The number of animals of the species that died while sick.
+     */
+    public long getInfectedDeaths(Species species) {
+        return infectedDeaths[species.getCode()];
+    }
+
+    /**
+     * @param species The species.
+     * @return The smoothed effective reproduction number of the species.
+     */
+    public double getReproductionNumber(Species species) {
+        return rEff[species.getCode()];
+    }
+
+    /**
+     * @return The smoothed effective reproduction number over all species.
+     */
+    public double getReproductionNumber() {
+        return overallREff;
+    }
+
+    /**
+     * Return the S/I/R counts of every species and the reproduction
+     * number, on one line.
+     * @return The summary.
+     */
+    public String getDetails() {
+        StringBuilder details = new StringBuilder();
+        for (Species species : Species.values()) {
+            details.append(species.getAnimalClass().getName()).append(" S/I/R: ")
+                   .append(getSusceptible(species)).append('/')
+                   .append(getInfected(species)).append('/')
+                   .append(getRecovered(species)).append(' ');
+        }
+        details.append(String.format("R_eff: %.2f", overallREff));
+        return details.toString();
+    }
+}
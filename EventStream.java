@@ -0,0 +1,445 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stream of what happens to the animals - births, deaths, infections
+ * and recoveries - for loggers, dashboards and other consumers that should
+ * not have to poll the field.
+ *
+ * The stream listens to a field and collects the events of a step into
+ * primitive arrays. At the end of the step they are published as one
+ * Batch to every subscriber. Delivery happens on an executor, not on the
+ * simulation thread, and each subscriber chooses what happens when it
+ * falls behind:
+ * BLOCK holds up the simulation until the subscriber catches up, DROP
+ * throws away new batches, and SAMPLE replaces the newest waiting batch,
+ * so that the subscriber sees the latest steps it has time for.
+ *
+ * With no subscribers an event costs one volatile read.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class EventStream implements FieldListener, Flow.Publisher<EventStream.Batch> {
+
+    // Kinds of event.
+    public static final byte BORN = 0;
+    public static final byte DIED = 1;
+    public static final byte INFECTED = 2;
+    public static final byte RECOVERED = 3;
+
+    /**
+     * What to do with a batch for a subscriber whose queue is full.
+     */
+    public enum Policy {
+        BLOCK, DROP, SAMPLE
+    }
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final Executor executor;
+    private final List<Link> links = new CopyOnWriteArrayList<>();
+    private volatile boolean active; // true while anyone is subscribed
+    private boolean closed;
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Events of the current step.
+    private byte[] kinds = new byte[256];
+    private byte[] species = new byte[256];
+    private int[] rows = new int[256];
+    private int[] cols = new int[256];
+    private int count;
+
+    /**
+     * Create a stream that delivers on the common fork/join pool, or on a
+     * thread per delivery run when that pool has only one thread (as
+     * SubmissionPublisher does), so one busy subscriber cannot starve the
+     * others.
+     */
+    public EventStream() {
+        this(ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : EventStream::startThread);
+    }
+
+    private static void startThread(Runnable task) {
+        Thread thread = new Thread(task, "event-stream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Create a stream that delivers on the given executor.
+     * @param executor Runs the deliveries to subscribers.
+     */
+    public EventStream(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * The events of one step. The arrays are shared by all subscribers and
+     * must not be changed.
+     */
+    public static final class Batch {
+        private final int step;
+        private final int size;
+        private final byte[] kinds;
+        private final byte[] species;
+        private final int[] rows;
+        private final int[] cols;
+
+        private Batch(int step, int size, byte[] kinds, byte[] species, int[] rows, int[] cols) {
+            this.step = step;
+            this.size = size;
+            this.kinds = kinds;
+            this.species = species;
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        /**
+         * @return The step the events happened in.
+         */
+        public int getStep() {
+            return step;
+        }
+
+        /**
+         * @return The number of events.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param i The index of an event.
+         * @return Its kind: BORN, DIED, INFECTED or RECOVERED.
+         */
+        public byte getKind(int i) {
+            return kinds[i];
+        }
+
+        /**
+         * @param i The index of an event.
+         * @return The species of the animal it happened to.
+         */
+        public Species getSpecies(int i) {
+            return Species.fromCode(species[i]);
+        }
+
+        /**
+         * @param i The index of an event.
+         * @return The row where it happened.
+         */
+        public int getRow(int i) {
+            return rows[i];
+        }
+
+        /**
+         * @param i The index of an event.
+         * @return The column where it happened.
+         */
+        public int getCol(int i) {
+            return cols[i];
+        }
+
+        /**
+         * Count the events of a kind.
+         * @param kind The kind.
+         * @return The number of such events in the batch.
+         */
+        public int count(byte kind) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                if (kinds[i] == kind) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Batch> subscriber) {
+        subscribe(subscriber, Policy.DROP, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Add a subscriber with its own backpressure policy.
+     * @param subscriber The subscriber.
+     * @param policy What to do when it falls behind.
+     * @param capacity The most batches queued for it.
+     */
+    public void subscribe(Flow.Subscriber<? super Batch> subscriber, Policy policy, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        Link link = new Link(subscriber, policy, capacity);
+        subscriber.onSubscribe(link);
+        synchronized (this) {
+            if (closed) {
+                link.complete();
+                return;
+            }
+            links.add(link);
+            active = true;
+        }
+    }
+
+    @Override
+    public void animalBorn(Animal animal) {
+        if (active) {
+            record(BORN, animal);
+        }
+    }
+
+    @Override
+    public void animalDied(Animal animal) {
+        if (active) {
+            record(DIED, animal);
+        }
+    }
+
+    @Override
+    public void animalInfected(Animal animal) {
+        if (active) {
+            record(INFECTED, animal);
+        }
+    }
+
+    @Override
+    public void animalRecovered(Animal animal) {
+        if (active) {
+            record(RECOVERED, animal);
+        }
+    }
+
+    private void record(byte kind, Animal animal) {
+        if (count == kinds.length) {
+            int length = count * 2;
+            kinds = Arrays.copyOf(kinds, length);
+            species = Arrays.copyOf(species, length);
+            rows = Arrays.copyOf(rows, length);
+            cols = Arrays.copyOf(cols, length);
+        }
+        Location location = animal.getLocation();
+        kinds[count] = kind;
+        species[count] = (byte) Species.of(animal).getCode();
+        rows[count] = location == null ? -1 : location.getRow();
+        cols[count] = location == null ? -1 : location.getCol();
+        count++;
+    }
+
+    /**
+     * Send the events collected since the last call to the subscribers.
+     * @param step The step that has just ended.
+     */
+    public void publish(int step) {
+        if (!active) {
+            count = 0;
+            return;
+        }
+        Batch batch = new Batch(step, count, Arrays.copyOf(kinds, count), Arrays.copyOf(species, count),
+                                Arrays.copyOf(rows, count), Arrays.copyOf(cols, count));
+        count = 0;
+        for (Link link : links) {
+            link.offer(batch);
+        }
+    }
+
+    /**
+     * Throw away the events collected since the last publish(), as when
+     * the simulation is reset and they belong to a world that is gone.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return The number of current subscribers.
+     */
+    public int getSubscriberCount() {
+        return links.size();
+    }
+
+    /**
+     * @return How many batches have been dropped or replaced because a
+     *         subscriber was behind.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * End the stream: every subscriber is completed once it has received
+     * the batches queued for it, and later subscribers are completed at once.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (Link link : links) {
+            link.complete();
+        }
+        links.clear();
+        active = false;
+    }
+
+    private synchronized void remove(Link link) {
+        links.remove(link);
+        active = !links.isEmpty();
+    }
+
+    /**
+     * The subscription of one subscriber: its queue of batches and the
+     * number it has asked for.
+     */
+    private class Link implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Batch> subscriber;
+        private final Policy policy;
+        private final int capacity;
+        private final ArrayDeque<Batch> queue = new ArrayDeque<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private long demand;
+        private boolean cancelled;
+        private boolean completing;
+        private boolean done;
+
+        Link(Flow.Subscriber<? super Batch> subscriber, Policy policy, int capacity) {
+            this.subscriber = subscriber;
+            this.policy = policy;
+            this.capacity = capacity;
+        }
+
+        void offer(Batch batch) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (queue.size() >= capacity) {
+                    switch (policy) {
+                        case BLOCK:
+                            while (queue.size() >= capacity && !cancelled) {
+                                try {
+                                    wait();
+                                }
+                                catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    return;
+                                }
+                            }
+                            if (cancelled) {
+                                return;
+                            }
+                            break;
+                        case DROP:
+                            dropped.incrementAndGet();
+                            return;
+                        default:
+                            queue.pollLast();
+                            dropped.incrementAndGet();
+                            break;
+                    }
+                }
+                queue.add(batch);
+            }
+            schedule();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completing = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    cancelled = true;
+                    queue.clear();
+                    notifyAll();
+                }
+                else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            if (n <= 0) {
+                remove(this);
+                executor.execute(() -> subscriber.onError(
+                    new IllegalArgumentException("Non-positive request: " + n)));
+                return;
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+                notifyAll();
+            }
+            remove(this);
+        }
+
+        /**
+         * Make sure a delivery run is under way, so that the subscriber is
+         * only ever called from one thread at a time.
+         */
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                while (true) {
+                    Batch batch;
+                    boolean finish = false;
+                    synchronized (this) {
+                        if (cancelled || done) {
+                            break;
+                        }
+                        if (queue.isEmpty()) {
+                            finish = completing;
+                            done = finish;
+                            if (!finish) {
+                                break;
+                            }
+                            batch = null;
+                        }
+                        else if (demand == 0) {
+                            break;
+                        }
+                        else {
+                            batch = queue.poll();
+                            demand--;
+                            notifyAll(); // room for a blocked simulation
+                        }
+                    }
+                    if (finish) {
+                        subscriber.onComplete();
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(batch);
+                    }
+                    catch (RuntimeException e) {
+                        cancel();
+                        subscriber.onError(e);
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -13,26 +14,125 @@ import java.util.Random;
 
 public class Field {
     private static final Random rand = Randomizer.getRandom();
+    // Blocks are at least 16x16 cells, and grow so there are at most ~1M of them.
+    private static final int MIN_BLOCK_SHIFT = 4;
+    private static final int MAX_BLOCKS = 1 << 20;
     private int depth, width;
     private Animal[][] field;
     private Plant[][] plants; //making grid for plant cells
 
+    // Coarse activity map: live animals per block, and the last step in
+    // which anything inside the block was placed or cleared.
+    private int blockShift, blockRows, blockCols;
+    private int[] blockAnimals;
+    private int[] blockTouched;
+    private int activityStep;
+    private int lastGrowthStep = -1;
+    private double skippedFraction;
+
+    // Wrapped neighbour tables, used when the field is a torus.
+    private boolean toroidal;
+    private int[] rowAbove, rowBelow, colLeft, colRight;
+
+    private FieldListener[] listeners = new FieldListener[0];
+    private RangeIndex rangeIndex; // null unless enabled
+    private MipPyramid mipPyramid; // null unless enabled
+    private StateDigest digest; // null unless enabled
+    private ScentField scent; // null unless enabled
+
     /**
      * Represent a field of the given dimensions.
      * @param depth The depth of the field.
      * @param width The width of the field.
      */
     public Field(int depth, int width) {
+        this(depth, width, true);
+    }
+
+    /**
+     * Represent a field of the given dimensions, optionally without the
+     * dense cell arrays. Subclasses that keep their own cell storage pass
+     * false and override the storage methods below.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param dense true to allocate the dense animal and plant arrays.
+     */
+    protected Field(int depth, int width, boolean dense) {
         this.depth = depth;
         this.width = width;
-        field = new Animal[depth][width];
-        plants = new Plant[depth][width]; //same thing as animals
+        if (dense) {
+            field = new Animal[depth][width];
+            plants = new Plant[depth][width]; //same thing as animals
+        }
+        blockShift = MIN_BLOCK_SHIFT;
+        while (((long) ((depth >> blockShift) + 1)) * ((width >> blockShift) + 1) > MAX_BLOCKS) {
+            blockShift++;
+        }
+        blockRows = ((depth - 1) >> blockShift) + 1;
+        blockCols = ((width - 1) >> blockShift) + 1;
+        blockAnimals = new int[blockRows * blockCols];
+        blockTouched = new int[blockRows * blockCols];
+    }
+
+    /**
+     * Choose whether the field wraps around at its edges, so that the top
+     * row neighbours the bottom row and the left column the right one.
+     * Every adjacency method then treats edge cells like any other.
+     * @param toroidal true to wrap, false for walls at the edges.
+     */
+    public void setToroidal(boolean toroidal) {
+        if (toroidal && (depth < 3 || width < 3)) {
+            throw new IllegalArgumentException("A toroidal field needs at least 3 rows and columns");
+        }
+        if (toroidal && rowAbove == null) {
+            rowAbove = new int[depth];
+            rowBelow = new int[depth];
+            for (int row = 0; row < depth; row++) {
+                rowAbove[row] = (row + depth - 1) % depth;
+                rowBelow[row] = (row + 1) % depth;
+            }
+            colLeft = new int[width];
+            colRight = new int[width];
+            for (int col = 0; col < width; col++) {
+                colLeft[col] = (col + width - 1) % width;
+                colRight[col] = (col + 1) % width;
+            }
+        }
+        this.toroidal = toroidal;
+    }
+
+    /**
+     * @return true if the field wraps around at its edges.
+     */
+    public boolean isToroidal() {
+        return toroidal;
     }
 
     /**
      * Empty the field.
      */
     public void clear() {
+        clearCells();
+        Arrays.fill(blockAnimals, 0);
+        Arrays.fill(blockTouched, activityStep);
+        if (rangeIndex != null) {
+            rangeIndex.reset();
+        }
+        if (mipPyramid != null) {
+            mipPyramid.reset();
+        }
+        if (digest != null) {
+            digest.reset();
+        }
+        if (scent != null) {
+            scent.clear();
+        }
+    }
+
+    /**
+     * Empty every cell of the underlying storage.
+     */
+    protected void clearCells() {
         for (int row = 0; row < depth; row++) {
             for (int col = 0; col < width; col++) {
                 field[row][col] = null;
@@ -46,8 +146,12 @@ public class Field {
      * @param location The location to clear.
      */
     public void clear(Location location) {
-        field[location.getRow()][location.getCol()] = null;
-        plants[location.getRow()][location.getCol()] = null;
+        int row = location.getRow();
+        int col = location.getCol();
+        Animal old = getObjectAt(row, col);
+        setObjectAt(row, col, null);
+        setPlantAt(row, col, null);
+        noteChange(row, col, old, null);
     }
 
     /**
@@ -62,22 +166,425 @@ public class Field {
     }
     
     public void place(Plant plant, int row, int col) {
-        plants[row][col] = plant;
+        setPlantAt(row, col, plant);
+        blockTouched[blockIndex(row, col)] = activityStep;
+        indexCell(row, col);
     }
     
     public Plant getPlantAt(Location location) {//made to return the locaion of a plant (row,col)
-        return plants[location.getRow()][location.getCol()];
+        return getPlantAt(location.getRow(), location.getCol());
+    }
+
+    /**
+     * Return the plant at the given location, if any.
+     * @param row The desired row.
+     * @param col The desired column.
+     * @return The plant at the given location, or null if there is none.
+     */
+    public Plant getPlantAt(int row, int col) {
+        return plants[row][col];
+    }
+
+    /**
+     * Store an animal (or null) in a cell. All writes to the animal
+     * layer go through here so that other storage layouts only need to
+     * override this and getObjectAt(int, int).
+     * @param row Row coordinate of the cell.
+     * @param col Column coordinate of the cell.
+     * @param animal The animal to store, or null to empty the cell.
+     */
+    protected void setObjectAt(int row, int col, Animal animal) {
+        field[row][col] = animal;
+    }
+
+    /**
+     * Store a plant (or null) in a cell. All writes to the plant layer
+     * go through here.
+     * @param row Row coordinate of the cell.
+     * @param col Column coordinate of the cell.
+     * @param plant The plant to store, or null to remove it.
+     */
+    protected void setPlantAt(int row, int col, Plant plant) {
+        plants[row][col] = plant;
     }
     
     public void growPlants() { //main method to make a plant in a cell
-        for (int row = 0; row < depth; row++) {
-            for (int col = 0; col < width; col++) {
+        // Blocks without animals that nothing has touched since the last
+        // growth pass are already full of plants and can be skipped.
+        int since = lastGrowthStep;
+        lastGrowthStep = activityStep;
+        for (int blockRow = 0; blockRow < blockRows; blockRow++) {
+            for (int blockCol = 0; blockCol < blockCols; blockCol++) {
+                if (!isBlockActive(blockRow, blockCol, since)) {
+                    continue;
+                }
+                int rowStart = blockRow << blockShift;
+                int rowEnd = Math.min(depth, (blockRow + 1) << blockShift);
+                int colStart = blockCol << blockShift;
+                int colEnd = Math.min(width, (blockCol + 1) << blockShift);
+                growPlants(rowStart, rowEnd, colStart, colEnd);
+                plantsGrown(rowStart, rowEnd, colStart, colEnd);
+            }
+        }
+    }
+
+    /**
+     * Grow a plant in every empty cell of a rectangle of the field.
+     * @param rowStart The first row, inclusive.
+     * @param rowEnd The last row, exclusive.
+     * @param colStart The first column, inclusive.
+     * @param colEnd The last column, exclusive.
+     */
+    protected void growPlants(int rowStart, int rowEnd, int colStart, int colEnd) {
+        for (int row = rowStart; row < rowEnd; row++) {
+            for (int col = colStart; col < colEnd; col++) {
                 if (field[row][col] == null && plants[row][col] == null) {
                     plants[row][col] = new Plant();
                 }
             }
         }
     }
+
+    /**
+     * Tell the field that plants may have grown anywhere in a rectangle.
+     * Subclasses that override growPlants() call this for what they grow.
+     * @param rowStart The first row, inclusive.
+     * @param rowEnd The last row, exclusive.
+     * @param colStart The first column, inclusive.
+     * @param colEnd The last column, exclusive.
+     */
+    protected void plantsGrown(int rowStart, int rowEnd, int colStart, int colEnd) {
+        if (rangeIndex == null && mipPyramid == null && digest == null) {
+            return;
+        }
+        for (int row = rowStart; row < rowEnd; row++) {
+            for (int col = colStart; col < colEnd; col++) {
+                indexCell(row, col);
+            }
+        }
+    }
+
+    /**
+     * Start keeping a RangeIndex of the field, so that the animals, sick
+     * animals and plants in any rectangle can be counted quickly. The
+     * index is built from the current contents and kept up to date from
+     * then on.
+     * @return The index.
+     */
+    public RangeIndex enableRangeIndex() {
+        if (rangeIndex == null) {
+            rangeIndex = new RangeIndex(depth, width);
+            rangeIndex.rebuild(this);
+        }
+        return rangeIndex;
+    }
+
+    /**
+     * @return The field's range index, or null if it has not been enabled.
+     */
+    public RangeIndex getRangeIndex() {
+        return rangeIndex;
+    }
+
+    /**
+     * Start keeping a MipPyramid of the field, so that it can be drawn
+     * zoomed out without visiting every cell. The pyramid is built from
+     * the current contents and kept up to date from then on.
+     * @return The pyramid.
+     */
+    public MipPyramid enableMipPyramid() {
+        if (mipPyramid == null) {
+            mipPyramid = new MipPyramid(depth, width);
+            mipPyramid.rebuild(this);
+        }
+        return mipPyramid;
+    }
+
+    /**
+     * @return The field's mip pyramid, or null if it has not been enabled.
+     */
+    public MipPyramid getMipPyramid() {
+        return mipPyramid;
+    }
+
+    /**
+     * Start keeping a StateDigest of the field, a hash of its whole state
+     * for comparing runs. The digest is built from the current contents
+     * and kept up to date from then on.
+     * @return The digest.
+     */
+    public StateDigest enableDigest() {
+        if (digest == null) {
+            digest = new StateDigest(depth, width);
+            digest.rebuild(this);
+        }
+        return digest;
+    }
+
+    /**
+     * @return The field's digest, or null if it has not been enabled.
+     */
+    public StateDigest getDigest() {
+        return digest;
+    }
+
+    /**
+     * Start keeping scent layers over the field. Animals then move along
+     * the scent gradients instead of at random; see Animal.findFreeLocation().
+     * The simulator updates the layers once per step.
+     * @return The scent layers.
+     */
+    public ScentField enableScent() {
+        if (scent == null) {
+            scent = new ScentField(depth, width);
+        }
+        return scent;
+    }
+
+    /**
+     * @return The field's scent layers, or null if they are not enabled.
+     */
+    public ScentField getScentField() {
+        return scent;
+    }
+
+    /**
+     * Bring the range index, mip pyramid and digest up to date with one cell.
+     */
+    private void indexCell(int row, int col) {
+        if (rangeIndex != null || mipPyramid != null || digest != null) {
+            Animal animal = getObjectAt(row, col);
+            boolean plant = getPlantAt(row, col) != null;
+            byte state = FieldSnapshot.encode(animal, plant);
+            if (rangeIndex != null) {
+                rangeIndex.update(row, col, state);
+            }
+            if (mipPyramid != null) {
+                mipPyramid.update(row, col, state);
+            }
+            if (digest != null) {
+                digest.update(row, col, animal, plant);
+            }
+        }
+    }
+
+    /**
+     * Bring the range index, mip pyramid and digest up to date with the
+     * cell of an animal whose sickness may have changed.
+     */
+    private void indexAnimal(Animal animal) {
+        Location location = animal.getLocation();
+        if ((rangeIndex != null || mipPyramid != null || digest != null) && location != null
+                && getObjectAt(location.getRow(), location.getCol()) == animal) {
+            indexCell(location.getRow(), location.getCol());
+        }
+    }
+
+    /**
+     * Tell the field that the state of an animal it holds (such as its
+     * sickness) has changed. Fields that keep a copy of that state in
+     * their cells refresh it here; the plain field has nothing to do.
+     * @param animal The animal whose state has changed.
+     */
+    public void animalChanged(Animal animal) {
+    }
+
+    /**
+     * Tell the field that the age or food level of an animal it holds has
+     * changed. Only the digest keeps these, so this does nothing unless
+     * the digest is enabled.
+     * @param animal The animal whose age or food level has changed.
+     */
+    public void animalAged(Animal animal) {
+        Location location = animal.getLocation();
+        if (digest != null && location != null
+                && getObjectAt(location.getRow(), location.getCol()) == animal) {
+            digest.update(location.getRow(), location.getCol(), animal,
+                          getPlantAt(location.getRow(), location.getCol()) != null);
+        }
+    }
+
+    /**
+     * Add a listener to be told about births, infections, recoveries and
+     * deaths of the animals in this field.
+     * @param listener The listener to add.
+     */
+    public void addListener(FieldListener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    /**
+     * Stop telling a listener about the animals in this field.
+     * @param listener The listener to remove.
+     */
+    public void removeListener(FieldListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                FieldListener[] fewer = new FieldListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, fewer, 0, i);
+                System.arraycopy(listeners, i + 1, fewer, i, fewer.length - i);
+                listeners = fewer;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tell the field that an animal has been born (or created) in it.
+     * @param animal The new animal, already placed.
+     */
+    public void animalBorn(Animal animal) {
+        animalChanged(animal);
+        indexAnimal(animal);
+        for (FieldListener listener : listeners) {
+            listener.animalBorn(animal);
+        }
+    }
+
+    /**
+     * Tell the field that an animal born in it came from the given parent.
+     * @param young The new animal, already reported with animalBorn.
+     * @param parent The parent.
+     */
+    public void animalBred(Animal young, Animal parent) {
+        for (FieldListener listener : listeners) {
+            listener.animalBred(young, parent);
+        }
+    }
+
+    /**
+     * Tell the field that an animal in it has fallen sick.
+     * @param animal The animal.
+     */
+    public void animalInfected(Animal animal) {
+        animalChanged(animal);
+        indexAnimal(animal);
+        for (FieldListener listener : listeners) {
+            listener.animalInfected(animal);
+        }
+    }
+
+    /**
+     * Tell the field that an animal in it has recovered from sickness.
+     * @param animal The animal.
+     */
+    public void animalRecovered(Animal animal) {
+        animalChanged(animal);
+        indexAnimal(animal);
+        for (FieldListener listener : listeners) {
+            listener.animalRecovered(animal);
+        }
+    }
+
+    /**
+     * Tell the field that an animal has died, or otherwise left it for
+     * good, and has been removed from it.
+     * @param animal The animal.
+     */
+    public void animalDied(Animal animal) {
+        for (FieldListener listener : listeners) {
+            listener.animalDied(animal);
+        }
+    }
+
+    /**
+     * Mark the start of a new simulation step in the activity map, and
+     * record what fraction of the blocks had no activity in the step that
+     * has just finished.
+     */
+    public void beginStep() {
+        int dormant = 0;
+        for (int i = 0; i < blockAnimals.length; i++) {
+            if (blockAnimals[i] == 0 && blockTouched[i] != activityStep) {
+                dormant++;
+            }
+        }
+        skippedFraction = (double) dormant / blockAnimals.length;
+        activityStep++;
+    }
+
+    /**
+     * Return the current step number of the activity map. A grid-wide pass
+     * can remember this value and later ask which blocks have been active
+     * since.
+     * @return The current activity step.
+     */
+    public int getActivityStep() {
+        return activityStep;
+    }
+
+    /**
+     * Return the fraction of blocks that held no animals and saw no
+     * changes during the last completed step.
+     * @return The fraction of the world that grid-wide passes may skip.
+     */
+    public double getSkippedFraction() {
+        return skippedFraction;
+    }
+
+    /**
+     * Determine whether a block has animals in it, or has had something
+     * placed or cleared in it at or after the given activity step.
+     * @param blockRow The block's row in the activity map.
+     * @param blockCol The block's column in the activity map.
+     * @param since The activity step from which changes count.
+     * @return true if a grid-wide pass needs to visit this block.
+     */
+    public boolean isBlockActive(int blockRow, int blockCol, int since) {
+        int index = blockRow * blockCols + blockCol;
+        return blockAnimals[index] > 0 || blockTouched[index] >= since;
+    }
+
+    /**
+     * Determine whether a block currently holds any animals.
+     * @param blockRow The block's row in the activity map.
+     * @param blockCol The block's column in the activity map.
+     * @return true if there is at least one animal in the block.
+     */
+    public boolean hasAnimals(int blockRow, int blockCol) {
+        return blockAnimals[blockRow * blockCols + blockCol] > 0;
+    }
+
+    /**
+     * @return The side length of a block in the activity map, in cells.
+     */
+    public int getBlockSize() {
+        return 1 << blockShift;
+    }
+
+    /**
+     * @return The number of block rows in the activity map.
+     */
+    public int getBlockRows() {
+        return blockRows;
+    }
+
+    /**
+     * @return The number of block columns in the activity map.
+     */
+    public int getBlockCols() {
+        return blockCols;
+    }
+
+    /**
+     * Update the activity map after the animal in a cell has changed.
+     */
+    private void noteChange(int row, int col, Animal old, Animal animal) {
+        int index = blockIndex(row, col);
+        blockTouched[index] = activityStep;
+        if (old == null && animal != null) {
+            blockAnimals[index]++;
+        }
+        else if (old != null && animal == null) {
+            blockAnimals[index]--;
+        }
+        indexCell(row, col);
+    }
+
+    private int blockIndex(int row, int col) {
+        return (row >> blockShift) * blockCols + (col >> blockShift);
+    }
     
     /**
      * Place an animal at the given location.
@@ -86,7 +593,11 @@ public class Field {
      * @param location Where to place the animal.
      */
     public void place(Animal animal, Location location) {
-        field[location.getRow()][location.getCol()] = animal;
+        int row = location.getRow();
+        int col = location.getCol();
+        Animal old = getObjectAt(row, col);
+        setObjectAt(row, col, animal);
+        noteChange(row, col, old, animal);
     }
 
     /**
@@ -132,7 +643,15 @@ public class Field {
         assert location != null : "Null location passed to adjacentLocations";
         
         List<Location> locations = new LinkedList<>();
-        if (location != null) {
+        if (location != null && toroidal) {
+            long[] cells = new long[8];
+            adjacentCells(location.getRow(), location.getCol(), cells);
+            for (long cell : cells) {
+                locations.add(new Location((int) (cell / width), (int) (cell % width)));
+            }
+            Collections.shuffle(locations, rand);
+        }
+        else if (location != null) {
             int row = location.getRow();
             int col = location.getCol();
             for (int roffset = -1; roffset <= 1; roffset++) {
@@ -156,6 +675,48 @@ public class Field {
         return locations;
     }
 
+    /**
+     * Find the cells adjacent to a cell, without creating any objects or
+     * using the shared random generator, so that it is safe to call from
+     * several threads at once. The cells come in a fixed order.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param neighbours Receives the row * width + col index of each
+     *                   adjacent cell; must have room for 8.
+     * @return The number of adjacent cells.
+     */
+    public int adjacentCells(int row, int col, long[] neighbours) {
+        if (toroidal) {
+            long above = (long) rowAbove[row] * width;
+            long here = (long) row * width;
+            long below = (long) rowBelow[row] * width;
+            int left = colLeft[col];
+            int right = colRight[col];
+            neighbours[0] = above + left;
+            neighbours[1] = above + col;
+            neighbours[2] = above + right;
+            neighbours[3] = here + left;
+            neighbours[4] = here + right;
+            neighbours[5] = below + left;
+            neighbours[6] = below + col;
+            neighbours[7] = below + right;
+            return 8;
+        }
+        int count = 0;
+        for (int roffset = -1; roffset <= 1; roffset++) {
+            int nextRow = row + roffset;
+            if (nextRow >= 0 && nextRow < depth) {
+                for (int coffset = -1; coffset <= 1; coffset++) {
+                    int nextCol = col + coffset;
+                    if (nextCol >= 0 && nextCol < width && (roffset != 0 || coffset != 0)) {
+                        neighbours[count++] = (long) nextRow * width + nextCol;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
     /**
      * Get a shuffled list of living neighbours
      * @param location Get locations adjacent to this.
@@ -170,7 +731,7 @@ public class Field {
         List<Location> adjLocations = adjacentLocations(location);
 
         for (Location loc : adjLocations) {
-          Animal animal = field[loc.getRow()][loc.getCol()];
+          Animal animal = getObjectAt(loc.getRow(), loc.getCol());
           if (animal != null && animal.isAlive())
             neighbours.add(animal);
         }
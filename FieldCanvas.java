@@ -1,9 +1,16 @@
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.paint.Color; 
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
 
 /**
- * Provide a graphical view of the field. This is a custom node for the user interface. 
+ * Provide a graphical view of the field. This is a custom node for the user interface.
+ *
+ * The canvas shows a viewport onto the field, which can be zoomed and
+ * panned. Cells are drawn one rectangle each while they are large enough
+ * to see; when zoomed further out, blocks of cells are drawn as single
+ * pixels of an image (see SimulatorView and MipPyramid).
  *
  * @author Jeffery Raphael
  * @version 2024.02.03
@@ -11,11 +18,17 @@ import javafx.scene.paint.Color;
 
 public class FieldCanvas extends Canvas {
 
-    private static final int GRID_VIEW_SCALING_FACTOR = 6;
+    // Cells at least this many pixels wide are drawn one by one.
+    private static final double DETAIL_PIXELS = 4;
+    private static final double MAX_CELL_PIXELS = 64;
     private int width, height;
-    private int xScale, yScale;
+    private double xScale, yScale; // pixels per cell with the whole field in view
+    private double zoom = 1;
+    private double firstCol, firstRow; // the cell at the top left of the viewport
+    private int gridWidth = 1, gridHeight = 1;
+    private WritableImage image;
     GraphicsContext gc;
-    
+
     /**
     * Create a new FieldView component.
     */
@@ -25,26 +38,170 @@ public class FieldCanvas extends Canvas {
         this.height = height;
         this.width = width;
     }
-    
+
     /**
-     * The scale determines the actual size of the rectangles that are drawn
+     * The scale determines the actual size of the rectangles that are drawn.
+     * It is chosen so the whole grid fits, in whole pixels where cells are
+     * at least a pixel wide and in fractions of a pixel where they are not.
+     * The viewport is reset to show the whole grid.
      */
     public void setScale(int gridHeight, int gridWidth) {
-        xScale = (width / gridWidth);
-        yScale = height / gridHeight;
-    
-        if (xScale < 1)
-            xScale = GRID_VIEW_SCALING_FACTOR;
-    
-        if (yScale < 1)
-            yScale = GRID_VIEW_SCALING_FACTOR;
+        this.gridHeight = gridHeight;
+        this.gridWidth = gridWidth;
+        xScale = fit(width, gridWidth);
+        yScale = fit(height, gridHeight);
+        zoom = 1;
+        firstCol = 0;
+        firstRow = 0;
+    }
+
+    private static double fit(int pixels, int cells) {
+        return pixels >= cells ? pixels / cells : (double) pixels / cells;
+    }
+
+    /**
+     * Zoom in or out, keeping the cell under the given point where it is.
+     * @param factor How much larger cells become; below 1 zooms out.
+     * @param x The x coordinate of the point, in pixels.
+     * @param y The y coordinate of the point, in pixels.
+     */
+    public void zoom(double factor, double x, double y) {
+        double col = firstCol + x / getCellWidth();
+        double row = firstRow + y / getCellHeight();
+        double most = MAX_CELL_PIXELS / Math.min(xScale, yScale);
+        zoom = Math.max(1, Math.min(most, zoom * factor));
+        firstCol = col - x / getCellWidth();
+        firstRow = row - y / getCellHeight();
+        clampViewport();
+    }
+
+    /**
+     * Move the viewport.
+     * @param dx How far to move the field to the right, in pixels.
+     * @param dy How far to move the field down, in pixels.
+     */
+    public void pan(double dx, double dy) {
+        firstCol -= dx / getCellWidth();
+        firstRow -= dy / getCellHeight();
+        clampViewport();
+    }
+
+    /**
+     * Keep the viewport within the field.
+     */
+    private void clampViewport() {
+        firstCol = Math.max(0, Math.min(firstCol, gridWidth - width / getCellWidth()));
+        firstRow = Math.max(0, Math.min(firstRow, gridHeight - height / getCellHeight()));
+    }
+
+    /**
+     * @return The width of a cell in pixels at the current zoom.
+     */
+    public double getCellWidth() {
+        return xScale * zoom;
+    }
+
+    /**
+     * @return The height of a cell in pixels at the current zoom.
+     */
+    public double getCellHeight() {
+        return yScale * zoom;
+    }
+
+    /**
+     * @return The first column at least partly in view.
+     */
+    public int getFirstCol() {
+        return (int) firstCol;
     }
-  
+
+    /**
+     * @return The first row at least partly in view.
+     */
+    public int getFirstRow() {
+        return (int) firstRow;
+    }
+
+    /**
+     * @return The column after the last one at least partly in view.
+     */
+    public int getEndCol() {
+        return (int) Math.min(gridWidth, Math.ceil(firstCol + width / getCellWidth()));
+    }
+
+    /**
+     * @return The row after the last one at least partly in view.
+     */
+    public int getEndRow() {
+        return (int) Math.min(gridHeight, Math.ceil(firstRow + height / getCellHeight()));
+    }
+
+    /**
+     * @return true if cells are large enough to be drawn one by one.
+     */
+    public boolean isDetailed() {
+        return Math.min(getCellWidth(), getCellHeight()) >= DETAIL_PIXELS;
+    }
+
+    /**
+     * Return the level of detail to draw at: the smallest level of a
+     * MipPyramid whose blocks are at least a pixel across.
+     * @return The level; 0 for single cells.
+     */
+    public int getLevelOfDetail() {
+        double cell = Math.min(getCellWidth(), getCellHeight());
+        int level = 0;
+        while ((1 << level) * cell < 1) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Blank the whole canvas.
+     */
+    public void clear() {
+        gc.clearRect(0, 0, width, height);
+    }
+
     /**
     * Paint a rectangle of the given color on the canvas
     */
     public void drawMark(int x, int y, Color color) {
+        double cellWidth = getCellWidth();
+        double cellHeight = getCellHeight();
         gc.setFill(color);
-        gc.fillRect(x * xScale, y * yScale, xScale-1, yScale-1);
+        gc.fillRect((x - firstCol) * cellWidth, (y - firstRow) * cellHeight, cellWidth - 1, cellHeight - 1);
+    }
+
+    /**
+    * Paint a block of grid cells with the given (usually translucent) color,
+    * on top of what is already drawn
+    */
+    public void drawBlock(int x, int y, int cols, int rows, Color color) {
+        gc.setFill(color);
+        gc.fillRect((x - firstCol) * getCellWidth(), (y - firstRow) * getCellHeight(),
+                    cols * getCellWidth(), rows * getCellHeight());
+    }
+
+    /**
+    * Paint a grid of equal blocks of cells from their ARGB colours, as
+    * one image
+    * @param argb The colours, row by row.
+    * @param cols The number of blocks across.
+    * @param rows The number of blocks down.
+    * @param x The column of the top left cell of the first block.
+    * @param y The row of the top left cell of the first block.
+    * @param side The number of cells along each side of a block.
+    */
+    public void drawBlocks(int[] argb, int cols, int rows, int x, int y, int side) {
+        if (image == null || image.getWidth() < cols || image.getHeight() < rows) {
+            image = new WritableImage(Math.max(cols, width), Math.max(rows, height));
+        }
+        image.getPixelWriter().setPixels(0, 0, cols, rows, PixelFormat.getIntArgbInstance(), argb, 0, cols);
+        gc.setImageSmoothing(false);
+        gc.drawImage(image, 0, 0, cols, rows,
+                     (x - firstCol) * getCellWidth(), (y - firstRow) * getCellHeight(),
+                     cols * side * getCellWidth(), rows * side * getCellHeight());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+/**
+ * Something that wants to know what happens to the animals in a field:
+ * when they are born, fall sick, recover and die. Register a listener
+ * with Field.addListener. Every method does nothing unless overridden.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public interface FieldListener {
+
+    /**
+     * An animal has been born, or created at the start of a simulation.
+     * @param animal The new animal, already placed in the field.
+     */
+    default void animalBorn(Animal animal) {
+    }
+
+    /**
+     * An animal has been born to a parent. Called straight after
+     * animalBorn for the young.
+     * @param young The new animal.
+     * @param parent The parent whose mating produced it.
+     */
+    default void animalBred(Animal young, Animal parent) {
+    }
+
+    /**
+     * An animal has fallen sick.
+     * @param animal The animal.
+     */
+    default void animalInfected(Animal animal) {
+    }
+
+    /**
+     * An animal has recovered from sickness.
+     * @param animal The animal.
+     */
+    default void animalRecovered(Animal animal) {
+    }
+
+    /**
+     * An animal has died and been removed from the field.
+     * @param animal The animal.
+     */
+    default void animalDied(Animal animal) {
+    }
+}
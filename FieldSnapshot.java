@@ -0,0 +1,151 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A compact copy of the state of a field at the end of one step: one byte
+ * per cell holding the species code of the animal there (0 if none) in
+ * the low three bits, a sickness flag and a plant flag.
+ *
+ * Snapshots are handed to consumers on other threads while the simulation
+ * carries on, so they never refer back to live animals. A snapshot can be
+ * shared by several consumers; each one calls release() when done so the
+ * snapshot's buffer can be reused.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class FieldSnapshot {
+
+    public static final int SPECIES_MASK = 0x07;
+    public static final int SICK_FLAG = 0x08;
+    public static final int PLANT_FLAG = 0x10;
+
+    private final int depth, width;
+    private final byte[] cells;
+    private int step;
+    private long publishTime;
+    private final AtomicInteger users = new AtomicInteger();
+    private Runnable onRelease;
+
+    /**
+     * Create an empty snapshot for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public FieldSnapshot(int depth, int width) {
+        // A snapshot is one byte array, which holds at most about 2^31 cells.
+        if ((long) depth * width > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Field of " + depth + " by " + width
+                                               + " cells too large for a snapshot");
+        }
+        this.depth = depth;
+        this.width = width;
+        cells = new byte[depth * width];
+    }
+
+    /**
+     * Copy the state of a field into this snapshot.
+     * @param field The field to copy; must have this snapshot's size.
+     * @param step The step the field is at.
+     */
+    public void capture(Field field, int step) {
+        this.step = step;
+        if (field instanceof OffHeapField) {
+            ((OffHeapField) field).packInto(cells); // already one byte per cell
+            return;
+        }
+        int index = 0;
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                cells[index++] = encode(field.getObjectAt(row, col), field.getPlantAt(row, col) != null);
+            }
+        }
+    }
+
+    /**
+     * Return the byte used for a cell holding the given animal and plant.
+     * @param animal The animal in the cell, or null.
+     * @param plant true if there is a plant in the cell.
+     * @return The cell's encoded state.
+     */
+    public static byte encode(Animal animal, boolean plant) {
+        int value = plant ? PLANT_FLAG : 0;
+        if (animal != null) {
+            value |= Species.of(animal).getCode();
+            if (animal.isSick()) {
+                value |= SICK_FLAG;
+            }
+        }
+        return (byte) value;
+    }
+
+    /**
+     * @return The step the snapshot was taken at.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Return the encoded state of one cell.
+     * @param row The row.
+     * @param col The column.
+     * @return The cell's byte.
+     */
+    public int getCell(int row, int col) {
+        return cells[row * width + col];
+    }
+
+    /**
+     * Return the cell bytes in row-major order. The array belongs to the
+     * snapshot and must not be changed.
+     * @return The cells.
+     */
+    public byte[] getCells() {
+        return cells;
+    }
+
+    /**
+     * @return The System.nanoTime() at which the snapshot was published.
+     */
+    public long getPublishTime() {
+        return publishTime;
+    }
+
+    /**
+     * Mark the snapshot as handed to the given number of consumers.
+     * @param consumers The number of release() calls to wait for.
+     * @param onRelease What to do once the last consumer has released it.
+     */
+    void publish(int consumers, Runnable onRelease) {
+        this.onRelease = onRelease;
+        publishTime = System.nanoTime();
+        users.set(consumers);
+        if (consumers == 0) {
+            onRelease.run();
+        }
+    }
+
+    /**
+     * Tell the snapshot that one consumer has finished with it.
+     */
+    public void release() {
+        if (users.decrementAndGet() == 0 && onRelease != null) {
+            onRelease.run();
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import java.lang.foreign.MemorySegment;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -110,6 +111,74 @@ public class FieldStats {
         count.increment();
     }
 
+    /**
+     * Increment the count for one class of animal by several at once, as
+     * when adding up counts made elsewhere.
+     * @param animalClass The class of animal to increment.
+     * @param amount The number to add.
+     */
+    public void incrementCount(Class animalClass, int amount) {
+        Counter count = counters.get(animalClass);
+
+        if (count == null) {
+            count = new Counter(animalClass.getName());
+            counters.put(animalClass, count);
+        }
+        count.increment(amount);
+    }
+
+    /**
+     * Increment the infected count for one class of animal by several at once.
+     * @param animalClass The class of animal to increment.
+     * @param amount The number to add.
+     */
+    public void incrementInfectedCount(Class animalClass, int amount) {
+        Counter infectedAnimalCounts = infectedCounts.get(animalClass);
+
+        if (infectedAnimalCounts == null) {
+            infectedAnimalCounts = new Counter(animalClass.getName());
+            infectedCounts.put(animalClass, infectedAnimalCounts);
+        }
+        infectedAnimalCounts.increment(amount);
+    }
+
+    /**
+     * Replace the counts with those of a field snapshot.
+     * @param snapshot The snapshot to count.
+     */
+    public void countSnapshot(FieldSnapshot snapshot) {
+        long[] population = new long[FieldSnapshot.SPECIES_MASK + 1];
+        long[] infected = new long[population.length];
+        byte[] cells = snapshot.getCells();
+        GridKernels.get().histogram(MemorySegment.ofArray(cells), 0, cells.length, population, infected);
+        reset();
+        for (Species species : Species.values()) {
+            incrementCount(species.getAnimalClass(), (int) population[species.getCode()]);
+            incrementInfectedCount(species.getAnimalClass(), (int) infected[species.getCode()]);
+        }
+        countsValid = true;
+    }
+
+    /**
+     * Return the last count for one class of animal.
+     * @param animalClass The class of animal.
+     * @return The number counted, 0 if none.
+     */
+    public int getCount(Class animalClass) {
+        Counter count = counters.get(animalClass);
+        return count == null ? 0 : count.getCount();
+    }
+
+    /**
+     * Return the last infected count for one class of animal.
+     * @param animalClass The class of animal.
+     * @return The number of sick animals counted, 0 if none.
+     */
+    public int getInfectedCount(Class animalClass) {
+        Counter count = infectedCounts.get(animalClass);
+        return count == null ? 0 : count.getCount();
+    }
+
     /**
      * Indicate that an animal count has been completed.
      */
@@ -144,12 +213,22 @@ public class FieldStats {
      */
     private void generateCounts(Field field) {
         reset();
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) {
-                Animal animal = field.getObjectAt(row, col);
+        int size = field.getBlockSize();
+        for (int blockRow = 0; blockRow < field.getBlockRows(); blockRow++) {
+            for (int blockCol = 0; blockCol < field.getBlockCols(); blockCol++) {
+                if (!field.hasAnimals(blockRow, blockCol)) {
+                    continue; // dormant block, nothing to count
+                }
+                int rowEnd = Math.min(field.getDepth(), (blockRow + 1) * size);
+                int colEnd = Math.min(field.getWidth(), (blockCol + 1) * size);
+                for (int row = blockRow * size; row < rowEnd; row++) {
+                    for (int col = blockCol * size; col < colEnd; col++) {
+                        Animal animal = field.getObjectAt(row, col);
 
-                if (animal != null) {
-                    incrementCount(animal.getClass());
+                        if (animal != null) {
+                            incrementCount(animal.getClass());
+                        }
+                    }
                 }
             }
         }
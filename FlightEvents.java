@@ -0,0 +1,287 @@
+import java.util.Arrays;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events for the simulation, so that a recording of
+ * a run shows its steps and rare, expensive incidents next to the JVM's
+ * own garbage collection and allocation events.
+ *
+ * Four events are defined: a Step event per step, with the time taken by
+ * each phase and the number of animals, births, deaths and infections;
+ * a DieOff event for a step in which a large part of the population died;
+ * a LitterBurst event when an animal has a large litter; and an
+ * Overcrowding event when an animal dies for want of a free cell.
+ *
+ * While no recording has them enabled the events cost next to nothing:
+ * the simulator checks once per step whether the step events are wanted,
+ * and the others are only filled in once JFR has said they are enabled.
+ * The file ecosystem.jfc holds recording settings for these events and
+ * the GC and allocation events to go with them:
+ *   java -XX:StartFlightRecording:settings=ecosystem.jfc,filename=run.jfr ...
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class FlightEvents implements FieldListener {
+
+    // A step is a die-off when at least this share of the animals die...
+    private static final double DIE_OFF_FRACTION = 0.1;
+    // ...and at least this many.
+    private static final int DIE_OFF_MINIMUM = 10;
+    // Litters of at least this size are reported.
+    private static final int LITTER_BURST = 10;
+
+    private static final EventType STEP_TYPE = EventType.getEventType(StepEvent.class);
+    private static final EventType DIE_OFF_TYPE = EventType.getEventType(DieOffEvent.class);
+
+    private final DiseasePass population;
+    private boolean active; // true while the current step is recorded
+    private StepEvent stepEvent;
+    private int step;
+    private int populationBefore;
+    private long phaseBegan;
+    private final long[] phaseNanos = new long[Simulator.PHASE_NAMES.length];
+    private int births, deaths, infections;
+    private final int[] deathsBySpecies = new int[8];
+
+    /**
+     * Create the events of a simulation.
+     * @param population Where the number of living animals is kept.
+     */
+    public FlightEvents(DiseasePass population) {
+        this.population = population;
+    }
+
+    @Name("ecosystem.Step")
+    @Label("Simulation Step")
+    @Category("Ecosystem Simulator")
+    @Description("One step of the simulation, with the time taken by each phase")
+    @StackTrace(false)
+    static class StepEvent extends Event {
+        @Label("Step")
+        int step;
+        @Label("Animals")
+        int animals;
+        @Label("Births")
+        int births;
+        @Label("Deaths")
+        int deaths;
+        @Label("Infections")
+        int infections;
+        @Label("Scent Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long scentTime;
+        @Label("Act Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long actTime;
+        @Label("Disease Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long diseaseTime;
+        @Label("Finish Time")
+        @Description("Reordering and publishing the step to listeners")
+        @Timespan(Timespan.NANOSECONDS)
+        long finishTime;
+    }
+
+    @Name("ecosystem.DieOff")
+    @Label("Mass Die-off")
+    @Category("Ecosystem Simulator")
+    @Description("A step in which a large part of the population died")
+    @StackTrace(false)
+    static class DieOffEvent extends Event {
+        @Label("Step")
+        int step;
+        @Label("Deaths")
+        int deaths;
+        @Label("Population Before")
+        int populationBefore;
+        @Label("Fraction Died")
+        @Percentage
+        double fraction;
+        @Label("Worst Hit Species")
+        String species;
+    }
+
+    @Name("ecosystem.LitterBurst")
+    @Label("Litter Burst")
+    @Category("Ecosystem Simulator")
+    @Description("An animal had a large litter")
+    @StackTrace(false)
+    static class LitterBurstEvent extends Event {
+        @Label("Species")
+        String species;
+        @Label("Litter Size")
+        int litter;
+        @Label("Placed")
+        @Description("Young for which there was a free cell")
+        int placed;
+        @Label("Row")
+        int row;
+        @Label("Column")
+        int col;
+    }
+
+    @Name("ecosystem.Overcrowding")
+    @Label("Overcrowding Death")
+    @Category("Ecosystem Simulator")
+    @Description("An animal died because it had no free cell to move to")
+    @StackTrace(false)
+    static class OvercrowdingEvent extends Event {
+        @Label("Species")
+        String species;
+        @Label("Age")
+        int age;
+        @Label("Row")
+        int row;
+        @Label("Column")
+        int col;
+    }
+
+    /**
+     * Report an animal that is about to die of overcrowding. Call before
+     * setDead(), while it still has a location.
+     * @param animal The animal.
+     */
+    public static void overcrowded(Animal animal) {
+        OvercrowdingEvent event = new OvercrowdingEvent();
+        if (event.isEnabled()) {
+            event.species = Species.of(animal).name();
+            event.age = animal.age;
+            Location location = animal.getLocation();
+            if (location != null) {
+                event.row = location.getRow();
+                event.col = location.getCol();
+            }
+            event.commit();
+        }
+    }
+
+    /**
+     * Report a litter if it is a large one.
+     * @param parent The animal giving birth.
+     * @param litter The number of young it had.
+     * @param placed The number there was room for.
+     */
+    public static void litter(Animal parent, int litter, int placed) {
+        if (litter < LITTER_BURST) {
+            return;
+        }
+        LitterBurstEvent event = new LitterBurstEvent();
+        if (event.isEnabled()) {
+            event.species = Species.of(parent).name();
+            event.litter = litter;
+            event.placed = placed;
+            Location location = parent.getLocation();
+            if (location != null) {
+                event.row = location.getRow();
+                event.col = location.getCol();
+            }
+            event.commit();
+        }
+    }
+
+    /**
+     * Start recording a step, if step or die-off events are wanted.
+     * @param step The step.
+     */
+    public void beginStep(int step) {
+        active = STEP_TYPE.isEnabled() || DIE_OFF_TYPE.isEnabled();
+        if (!active) {
+            return;
+        }
+        this.step = step;
+        populationBefore = population.getPopulation();
+        births = 0;
+        deaths = 0;
+        infections = 0;
+        Arrays.fill(deathsBySpecies, 0);
+        stepEvent = new StepEvent();
+        stepEvent.begin();
+        phaseBegan = System.nanoTime();
+    }
+
+    /**
+     * Note the end of a phase of the step.
+     * @param phase The phase, one of Simulator's phase numbers.
+     */
+    public void phaseDone(int phase) {
+        if (active) {
+            long now = System.nanoTime();
+            phaseNanos[phase] = now - phaseBegan;
+            phaseBegan = now;
+        }
+    }
+
+    /**
+     * Finish recording a step, committing its events.
+     */
+    public void endStep() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        StepEvent event = stepEvent;
+        stepEvent = null;
+        event.end();
+        if (event.shouldCommit()) {
+            event.step = step;
+            event.animals = population.getPopulation();
+            event.births = births;
+            event.deaths = deaths;
+            event.infections = infections;
+            event.scentTime = phaseNanos[Simulator.SCENT_PHASE];
+            event.actTime = phaseNanos[Simulator.ACT_PHASE];
+            event.diseaseTime = phaseNanos[Simulator.DISEASE_PHASE];
+            event.finishTime = phaseNanos[Simulator.FINISH_PHASE];
+            event.commit();
+        }
+        if (deaths >= DIE_OFF_MINIMUM && deaths >= DIE_OFF_FRACTION * populationBefore) {
+            DieOffEvent dieOff = new DieOffEvent();
+            if (dieOff.isEnabled()) {
+                dieOff.step = step;
+                dieOff.deaths = deaths;
+                dieOff.populationBefore = populationBefore;
+                dieOff.fraction = populationBefore == 0 ? 1 : (double) deaths / populationBefore;
+                int worst = Species.BEAR.getCode();
+                for (int code = 1; code < deathsBySpecies.length; code++) {
+                    if (deathsBySpecies[code] > deathsBySpecies[worst]) {
+                        worst = code;
+                    }
+                }
+                dieOff.species = Species.fromCode(worst).name();
+                dieOff.commit();
+            }
+        }
+    }
+
+    @Override
+    public void animalBorn(Animal animal) {
+        if (active) {
+            births++;
+        }
+    }
+
+    @Override
+    public void animalInfected(Animal animal) {
+        if (active) {
+            infections++;
+        }
+    }
+
+    @Override
+    public void animalDied(Animal animal) {
+        if (active) {
+            deaths++;
+            deathsBySpecies[Species.of(animal).getCode()]++;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import javafx.scene.paint.Color;
+
+/**
+ * Turn field snapshots into frames of ARGB pixels, one pixel per cell,
+ * coloured the same way SimulatorView colours the field: animals in their
+ * species' colour (darker when sick), plants light green and empty cells
+ * white.
+ *
+ * The frame buffer is reused from one snapshot to the next.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class FrameBuilder {
+
+    private static final int[] PALETTE = createPalette();
+
+    private final int depth, width;
+    private final int[] pixels;
+    private int step;
+
+    /**
+     * Create a frame builder for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public FrameBuilder(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        pixels = new int[depth * width];
+    }
+
+    /**
+     * Colour the frame from a snapshot.
+     * @param snapshot The snapshot to draw; must be the builder's size.
+     */
+    public void build(FieldSnapshot snapshot) {
+        byte[] cells = snapshot.getCells();
+        for (int i = 0; i < cells.length; i++) {
+            pixels[i] = PALETTE[cells[i] & 0x1f];
+        }
+        step = snapshot.getStep();
+    }
+
+    /**
+     * Return the pixels of the last frame built, in row-major order. The
+     * array is reused by the next call to build().
+     * @return The frame's ARGB pixels.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return The step of the last frame built.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return The frame's height in pixels (the depth of the field).
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The frame's width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Return the ARGB colour for an encoded cell.
+     * @param cell A cell byte from a FieldSnapshot.
+     * @return The colour the cell is drawn in.
+     */
+    public static int colorOf(int cell) {
+        return PALETTE[cell & 0x1f];
+    }
+
+    /**
+     * Convert a JavaFX colour to an opaque ARGB int.
+     * @param color The colour.
+     * @return The ARGB value.
+     */
+    public static int toArgb(Color color) {
+        return 0xff000000
+             | (int) Math.round(color.getRed() * 255) << 16
+             | (int) Math.round(color.getGreen() * 255) << 8
+             | (int) Math.round(color.getBlue() * 255);
+    }
+
+    /**
+     * Work out the colour of every possible cell byte once.
+     */
+    private static int[] createPalette() {
+        int[] palette = new int[32];
+        for (int cell = 0; cell < palette.length; cell++) {
+            Species species = Species.fromCode(cell & FieldSnapshot.SPECIES_MASK);
+            Color color;
+            if (species != null) {
+                color = species.getColor();
+                if ((cell & FieldSnapshot.SICK_FLAG) != 0) {
+                    color = color.darker();
+                }
+            }
+            else if ((cell & FieldSnapshot.PLANT_FLAG) != 0) {
+                color = Color.LIGHTGREEN;
+            }
+            else {
+                color = Color.WHITE;
+            }
+            palette[cell] = toArgb(color);
+        }
+        return palette;
+    }
+}
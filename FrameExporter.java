@@ -0,0 +1,374 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.imageio.ImageIO;
+
+/**
+ * Write the field as a sequence of PNG images, one every few steps, for
+ * making time-lapse videos of long runs without the JavaFX window.
+ *
+ * On the simulation thread a frame is only a FieldSnapshot capture into a
+ * reused snapshot. Worker threads then colour it into their own reused
+ * ARGB image, with the palette of FrameBuilder (the colours SimulatorView
+ * uses), scale it up, draw the overlays and encode the PNG. Snapshots
+ * come from a fixed pool: when the workers are that far behind the
+ * simulation waits for them, so memory stays bounded however slow the
+ * encoding is.
+ *
+ * Fields too big to draw a pixel per cell can be shrunk instead: each
+ * pixel then stands for a square block of cells and shows what the block
+ * mostly holds, as MipPyramid.dominant() does for the zoomed-out view.
+ *
+ * A frame that fails does not stop the workers. The first failure is kept
+ * and thrown from the next capture() and from close().
+ *
+ * Images are named frame-NNNNNN.png after the step they show.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class FrameExporter {
+
+    private final File directory;
+    private final int stride;
+    private final int scale;
+    private final int shrink;
+    private final int imageDepth, imageWidth;
+    private final boolean overlay;
+    private final int depth, width;
+    private final BlockingQueue<FieldSnapshot> free;
+    private final BlockingQueue<FieldSnapshot> work;
+    private final Thread[] workers;
+    private volatile Throwable failure; // the first frame that failed
+    private int written;
+
+    // Tells a worker to stop.
+    private static final FieldSnapshot END = new FieldSnapshot(1, 1);
+
+    /**
+     * Create an exporter and start its workers.
+     * @param directory Where the images are written; created if missing.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param stride Write every this many steps.
+     * @param scale Pixels per cell along each side.
+     * @param overlay true to print the step and the population counts on
+     *                every image.
+     * @param workerCount The number of encoding threads.
+     * @param queueDepth The most frames waiting to be encoded.
+     */
+    public FrameExporter(File directory, int depth, int width, int stride, int scale,
+                         boolean overlay, int workerCount, int queueDepth) {
+        this(directory, depth, width, stride, scale, 1, overlay, workerCount, queueDepth);
+    }
+
+    /**
+     * Create an exporter that may shrink the field, and start its workers.
+     * @param directory Where the images are written; created if missing.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param stride Write every this many steps.
+     * @param scale Pixels per cell along each side.
+     * @param shrink Cells per pixel along each side. Either this or scale
+     *               must be 1.
+     * @param overlay true to print the step and the population counts on
+     *                every image.
+     * @param workerCount The number of encoding threads.
+     * @param queueDepth The most frames waiting to be encoded.
+     */
+    public FrameExporter(File directory, int depth, int width, int stride, int scale, int shrink,
+                         boolean overlay, int workerCount, int queueDepth) {
+        if (stride < 1 || scale < 1 || shrink < 1 || workerCount < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("Stride, scale, shrink, workers and queue depth must be at least 1");
+        }
+        if (scale > 1 && shrink > 1) {
+            throw new IllegalArgumentException("Cannot both scale and shrink");
+        }
+        long imageDepth = ((long) depth + shrink - 1) / shrink * scale;
+        long imageWidth = ((long) width + shrink - 1) / shrink * scale;
+        // An image is backed by a single int array.
+        if (imageDepth * imageWidth > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Images of " + imageWidth + " by " + imageDepth
+                                               + " pixels are too big; shrink the field further");
+        }
+        directory.mkdirs();
+        this.directory = directory;
+        this.depth = depth;
+        this.width = width;
+        this.stride = stride;
+        this.scale = scale;
+        this.shrink = shrink;
+        this.imageDepth = (int) imageDepth;
+        this.imageWidth = (int) imageWidth;
+        this.overlay = overlay;
+        free = new ArrayBlockingQueue<>(queueDepth + workerCount);
+        for (int i = 0; i < queueDepth + workerCount; i++) {
+            free.add(new FieldSnapshot(depth, width));
+        }
+        work = new ArrayBlockingQueue<>(queueDepth + workerCount * 2);
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(new Encoder(), "frame-encoder-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Capture the field for export if the step is on the stride.
+     * @param field The field; must be the exporter's size.
+     * @param step The step the field shows.
+     * @return true if a frame was captured.
+     * @throws IOException If an earlier frame could not be written.
+     * @throws InterruptedException If interrupted while waiting for a worker.
+     */
+    public boolean capture(Field field, int step) throws IOException, InterruptedException {
+        throwFailure();
+        if (step % stride != 0) {
+            return false;
+        }
+        FieldSnapshot snapshot = free.take();
+        snapshot.capture(field, step);
+        work.put(snapshot);
+        written++;
+        return true;
+    }
+
+    /**
+     * Wait for every captured frame to be written and stop the workers.
+     * @throws IOException If any image could not be written.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void close() throws IOException, InterruptedException {
+        for (int i = 0; i < workers.length; i++) {
+            work.put(END);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        throwFailure();
+    }
+
+    private void throwFailure() throws IOException {
+        Throwable failed = failure;
+        if (failed instanceof IOException) {
+            throw (IOException) failed;
+        }
+        else if (failed != null) {
+            throw new IOException("Could not write a frame", failed);
+        }
+    }
+
+    private synchronized void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    /**
+     * @return The number of frames captured so far.
+     */
+    public int getFrameCount() {
+        return written;
+    }
+
+    /**
+     * One encoding thread, with its own image and counts.
+     */
+    private class Encoder implements Runnable {
+        private final BufferedImage image = new BufferedImage(imageWidth, imageDepth, BufferedImage.TYPE_INT_ARGB);
+        private final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        private final FieldStats stats = new FieldStats();
+
+        public void run() {
+            try {
+                while (true) {
+                    FieldSnapshot snapshot = work.take();
+                    if (snapshot == END) {
+                        return;
+                    }
+                    int step = snapshot.getStep();
+                    // A frame that fails is recorded, and the next is served.
+                    try {
+                        if (shrink > 1) {
+                            drawShrunk(snapshot);
+                        }
+                        else {
+                            draw(snapshot);
+                        }
+                        if (overlay) {
+                            stats.countSnapshot(snapshot);
+                        }
+                    }
+                    catch (Throwable t) {
+                        fail(t);
+                        continue;
+                    }
+                    finally {
+                        // The image and counts hold all that is needed now.
+                        free.add(snapshot);
+                    }
+                    write(step);
+                }
+            }
+            catch (InterruptedException e) {
+                // asked to stop
+            }
+        }
+
+        /**
+         * Colour the image from a snapshot, scale pixels per cell.
+         */
+        private void draw(FieldSnapshot snapshot) {
+            byte[] cells = snapshot.getCells();
+            for (int row = 0; row < depth; row++) {
+                int line = row * scale * imageWidth;
+                for (int col = 0; col < width; col++) {
+                    int argb = FrameBuilder.colorOf(cells[row * width + col]);
+                    int at = line + col * scale;
+                    for (int x = 0; x < scale; x++) {
+                        pixels[at + x] = argb;
+                    }
+                }
+                for (int y = 1; y < scale; y++) {
+                    System.arraycopy(pixels, line, pixels, line + y * imageWidth, imageWidth);
+                }
+            }
+        }
+
+        /**
+         * Colour the image from a snapshot, one pixel per block of shrink
+         * by shrink cells: the most common species, sick if most of those
+         * are sick, or, with no animals, a plant if at least half the block
+         * has plants.
+         */
+        private void drawShrunk(FieldSnapshot snapshot) {
+            byte[] cells = snapshot.getCells();
+            int[] species = new int[FieldSnapshot.SPECIES_MASK + 1];
+            for (int y = 0; y < imageDepth; y++) {
+                int lastRow = Math.min(depth, (y + 1) * shrink);
+                for (int x = 0; x < imageWidth; x++) {
+                    int lastCol = Math.min(width, (x + 1) * shrink);
+                    Arrays.fill(species, 0);
+                    int animals = 0;
+                    int sick = 0;
+                    int plants = 0;
+                    for (int row = y * shrink; row < lastRow; row++) {
+                        for (int col = x * shrink; col < lastCol; col++) {
+                            int cell = cells[row * width + col];
+                            int code = cell & FieldSnapshot.SPECIES_MASK;
+                            if (code != 0) {
+                                species[code]++;
+                                animals++;
+                                if ((cell & FieldSnapshot.SICK_FLAG) != 0) {
+                                    sick++;
+                                }
+                            }
+                            if ((cell & FieldSnapshot.PLANT_FLAG) != 0) {
+                                plants++;
+                            }
+                        }
+                    }
+                    int state;
+                    if (animals > 0) {
+                        int best = 1;
+                        for (int code = 2; code < species.length; code++) {
+                            if (species[code] > species[best]) {
+                                best = code;
+                            }
+                        }
+                        state = best | (2 * sick > animals ? FieldSnapshot.SICK_FLAG : 0);
+                    }
+                    else {
+                        int area = (lastRow - y * shrink) * (lastCol - x * shrink);
+                        state = 2 * plants >= area ? FieldSnapshot.PLANT_FLAG : 0;
+                    }
+                    pixels[y * imageWidth + x] = FrameBuilder.colorOf(state);
+                }
+            }
+        }
+
+        private void write(int step) {
+            try {
+                if (overlay) {
+                    drawOverlay(step);
+                }
+                ImageIO.write(image, "png", new File(directory, String.format("frame-%06d.png", step)));
+            }
+            catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        /**
+         * Print the step and the population of every species in the top
+         * left corner.
+         */
+        private void drawOverlay(int step) {
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                int lineHeight = g.getFontMetrics().getHeight();
+                Species[] species = Species.values();
+                g.setColor(new Color(255, 255, 255, 200));
+                g.fillRect(0, 0, 150, lineHeight * (species.length + 1) + 4);
+                g.setColor(Color.BLACK);
+                g.drawString("Step: " + step, 4, lineHeight);
+                for (int i = 0; i < species.length; i++) {
+                    g.setColor(new Color(FrameBuilder.toArgb(species[i].getColor()), true));
+                    g.drawString(species[i].getAnimalClass().getSimpleName() + ": "
+                                 + stats.getCount(species[i].getAnimalClass()), 4, lineHeight * (i + 2));
+                }
+            }
+            finally {
+                g.dispose();
+            }
+        }
+    }
+
+    /**
+     * Run a simulation without a window and export it as images.
+     * @param args depth, width, number of steps, output directory, stride
+     *             and scale, either pixels per cell such as "4" or a
+     *             fraction such as "1/4" for cells per pixel; optionally
+     *             the number of workers.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        int depth = Integer.parseInt(args[0]);
+        int width = Integer.parseInt(args[1]);
+        int steps = Integer.parseInt(args[2]);
+        File directory = new File(args[3]);
+        int stride = Integer.parseInt(args[4]);
+        int scale = 1;
+        int shrink = 1;
+        if (args[5].startsWith("1/")) {
+            shrink = Integer.parseInt(args[5].substring(2));
+        }
+        else {
+            scale = Integer.parseInt(args[5]);
+        }
+        int workerCount = args.length > 6 ? Integer.parseInt(args[6])
+                                          : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        Simulator simulator = new Simulator(depth, width);
+        FrameExporter exporter = new FrameExporter(directory, depth, width, stride, scale, shrink, true,
+                                                   workerCount, 4);
+        long begin = System.nanoTime();
+        exporter.capture(simulator.getField(), simulator.getStep());
+        for (int i = 0; i < steps; i++) {
+            simulator.simulateOneStep();
+            exporter.capture(simulator.getField(), simulator.getStep());
+        }
+        exporter.close();
+        System.out.printf("%d frames in %.1f s%n", exporter.getFrameCount(), (System.nanoTime() - begin) / 1e9);
+    }
+}
@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stream a running simulation over TCP to remote viewers.
+ *
+ * After each step the server compares the field with the previous step
+ * and sends every client a delta: the cells that changed, run-length
+ * encoded. Every so often, and whenever a client needs one, it sends a
+ * keyframe holding the whole field instead. A viewer is a RemoteViewer,
+ * or anything built on FrameStreamClient.
+ *
+ * Messages are encoded once per step, on the simulation thread, into
+ * direct buffers, and appended to each client's outbox. Each client has
+ * its own sender thread, which swaps the outbox for an empty one and
+ * writes it to the socket. An outbox has a fixed size. If a client is too
+ * slow and its outbox fills up, what is waiting is thrown away and the
+ * client is sent the next keyframe, so a slow client skips ahead to the
+ * present instead of falling further behind.
+ *
+ * Message format, big-endian: int MAGIC, byte KEYFRAME or DELTA, int
+ * step, int depth, int width, int payload length, payload. A keyframe's
+ * payload is runs of (varint length, cell byte) covering every cell in
+ * row-major order. A delta's payload is pairs of (varint unchanged cells,
+ * varint changed cells) each followed by the new bytes of the changed
+ * cells, until every cell is covered. Cells are encoded as in
+ * FieldSnapshot.
+ *
+ * The server listens on the loopback address unless given another one,
+ * so that the field is not streamed to the network by accident.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class FrameServer {
+
+    public static final int MAGIC = 0x53494d46; // "SIMF"
+    public static final byte KEYFRAME = 0;
+    public static final byte DELTA = 1;
+    public static final int HEADER_BYTES = 4 + 1 + 4 + 4 + 4 + 4;
+
+    private final ServerSocketChannel server;
+    private final Thread acceptor;
+    private final int keyframeInterval;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+
+    private FieldSnapshot current, previous;
+    private boolean previousValid;
+    private ByteBuffer delta, keyframe;
+    private int keyframeStep = -1; // the step keyframe holds, or -1
+
+    /**
+     * Create a server on the loopback address and start accepting viewers.
+     * @param port The port, or 0 for any free port.
+     * @param keyframeInterval Send every client a keyframe every this
+     *                         many steps.
+     * @throws IOException If the port cannot be bound.
+     */
+    public FrameServer(int port, int keyframeInterval) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, keyframeInterval);
+    }
+
+    /**
+     * Create a server on the given address, such as a public address for
+     * viewers on other machines, and start accepting viewers.
+     * @param address The address to listen on.
+     * @param port The port, or 0 for any free port.
+     * @param keyframeInterval Send every client a keyframe every this
+     *                         many steps.
+     * @throws IOException If the port cannot be bound.
+     */
+    public FrameServer(InetAddress address, int port, int keyframeInterval) throws IOException {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be at least 1");
+        }
+        this.keyframeInterval = keyframeInterval;
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(address, port));
+        acceptor = new Thread(this::accept, "frame-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return The number of connected viewers.
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Send the state of the field after a step to every viewer. Does
+     * nothing, and captures nothing, while no viewer is connected.
+     * @param field The field.
+     * @param step The step that has just ended.
+     */
+    public void publish(Field field, int step) {
+        if (clients.isEmpty()) {
+            previousValid = false;
+            return;
+        }
+        int depth = field.getDepth();
+        int width = field.getWidth();
+        if (current == null || current.getDepth() != depth || current.getWidth() != width) {
+            current = new FieldSnapshot(depth, width);
+            previous = new FieldSnapshot(depth, width);
+            int most = maxMessageBytes(depth, width);
+            delta = ByteBuffer.allocateDirect(most);
+            keyframe = ByteBuffer.allocateDirect(most);
+            previousValid = false;
+        }
+        current.capture(field, step);
+        keyframeStep = -1;
+        boolean everyone = !previousValid || step % keyframeInterval == 0;
+        if (!everyone) {
+            encodeDelta(current.getCells(), previous.getCells(), step, depth, width);
+        }
+        for (Client client : clients) {
+            if (everyone || client.needsKeyframe()) {
+                client.send(keyframe(step, depth, width), true);
+            }
+            else {
+                client.send(delta, false);
+            }
+        }
+        FieldSnapshot swap = previous;
+        previous = current;
+        current = swap;
+        previousValid = true;
+    }
+
+    /**
+     * Stop accepting viewers and disconnect those connected.
+     */
+    public void close() {
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            // closing anyway
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    /**
+     * The largest a message can be for a field of the given size: a
+     * delta whose every other cell changed.
+     */
+    static int maxMessageBytes(int depth, int width) {
+        long cells = (long) depth * width;
+        long most = HEADER_BYTES + 3 * cells + 10;
+        if (most > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Field too large to stream");
+        }
+        return (int) most;
+    }
+
+    /**
+     * Return a keyframe of the current field, encoding it the first time
+     * it is needed in a step.
+     */
+    private ByteBuffer keyframe(int step, int depth, int width) {
+        if (keyframeStep != step) {
+            encodeKeyframe(current.getCells(), step, depth, width);
+            keyframeStep = step;
+        }
+        return keyframe;
+    }
+
+    private void encodeKeyframe(byte[] cells, int step, int depth, int width) {
+        ByteBuffer out = keyframe;
+        out.clear();
+        out.position(HEADER_BYTES);
+        int i = 0;
+        while (i < cells.length) {
+            byte value = cells[i];
+            int run = 1;
+            while (i + run < cells.length && cells[i + run] == value) {
+                run++;
+            }
+            putVarint(out, run);
+            out.put(value);
+            i += run;
+        }
+        finish(out, KEYFRAME, step, depth, width);
+    }
+
+    private void encodeDelta(byte[] cells, byte[] before, int step, int depth, int width) {
+        ByteBuffer out = delta;
+        out.clear();
+        out.position(HEADER_BYTES);
+        int i = 0;
+        while (i < cells.length) {
+            int same = 0;
+            while (i + same < cells.length && cells[i + same] == before[i + same]) {
+                same++;
+            }
+            i += same;
+            int changed = 0;
+            while (i + changed < cells.length && cells[i + changed] != before[i + changed]) {
+                changed++;
+            }
+            putVarint(out, same);
+            putVarint(out, changed);
+            out.put(cells, i, changed);
+            i += changed;
+        }
+        finish(out, DELTA, step, depth, width);
+    }
+
+    private static void finish(ByteBuffer out, byte type, int step, int depth, int width) {
+        int payload = out.position() - HEADER_BYTES;
+        out.putInt(0, MAGIC);
+        out.put(4, type);
+        out.putInt(5, step);
+        out.putInt(9, depth);
+        out.putInt(13, width);
+        out.putInt(17, payload);
+        out.flip();
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                channel.socket().setTcpNoDelay(true);
+                Client client = new Client(channel);
+                clients.add(client);
+                client.thread.start();
+            }
+        }
+        catch (ClosedChannelException e) {
+            // server closed
+        }
+        catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * One viewer: its socket, its outbox and the thread that sends it.
+     */
+    private class Client implements Runnable {
+        private final SocketChannel channel;
+        private final Thread thread;
+        private ByteBuffer outbox;   // filled by the simulation
+        private ByteBuffer sending;  // being written by the sender thread
+        private boolean needsKeyframe = true;
+        private boolean closed;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+            thread = new Thread(this, "frame-client-" + channel.socket().getPort());
+            thread.setDaemon(true);
+        }
+
+        synchronized boolean needsKeyframe() {
+            return needsKeyframe;
+        }
+
+        /**
+         * Append a message to the outbox, or, if it does not fit, empty the
+         * outbox and wait for a keyframe.
+         */
+        synchronized void send(ByteBuffer message, boolean isKeyframe) {
+            if (closed) {
+                return;
+            }
+            if (outbox == null || outbox.capacity() < 2 * message.capacity()) {
+                outbox = ByteBuffer.allocateDirect(2 * message.capacity());
+                sending = ByteBuffer.allocateDirect(2 * message.capacity());
+                needsKeyframe = true;
+            }
+            if (needsKeyframe && !isKeyframe) {
+                return;
+            }
+            if (outbox.remaining() < message.remaining()) {
+                outbox.clear();
+                needsKeyframe = true;
+                if (!isKeyframe) {
+                    return;
+                }
+            }
+            outbox.put(message.duplicate());
+            needsKeyframe = false;
+            notifyAll();
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    ByteBuffer batch;
+                    synchronized (this) {
+                        while (!closed && (outbox == null || outbox.position() == 0)) {
+                            wait();
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        // Swap buffers, so the simulation can go on filling
+                        // the outbox while this one is written.
+                        batch = outbox;
+                        outbox = sending;
+                        outbox.clear();
+                        sending = batch;
+                    }
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    batch.clear();
+                }
+            }
+            catch (IOException | InterruptedException e) {
+                // the viewer has gone
+            }
+            finally {
+                close();
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            clients.remove(this);
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * Run a simulation and stream it until it has run the given steps.
+     * @param args port, depth, width, number of steps and milliseconds
+     *             between steps.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int depth = Integer.parseInt(args[1]);
+        int width = Integer.parseInt(args[2]);
+        int steps = Integer.parseInt(args[3]);
+        int delay = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+
+        Simulator simulator = new Simulator(depth, width);
+        FrameServer frames = simulator.enableFrameServer(port, 50);
+        System.out.println("Streaming on port " + frames.getPort());
+        for (int i = 0; i < steps; i++) {
+            simulator.simulateOneStep();
+            simulator.delay(delay);
+        }
+        frames.close();
+    }
+}
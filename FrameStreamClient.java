@@ -0,0 +1,218 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The receiving end of a FrameServer stream: reads keyframes and deltas
+ * from the socket and keeps an up-to-date copy of the field's cells,
+ * encoded as in FieldSnapshot. It has no user interface; RemoteViewer
+ * draws what it receives, and main() prints it, which allows the stream
+ * to be tried out without a display.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class FrameStreamClient {
+
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(FrameServer.HEADER_BYTES);
+    private ByteBuffer payload = ByteBuffer.allocateDirect(0);
+    private byte[] cells = new byte[0];
+    private int depth, width;
+    private int step = -1;
+    private boolean keyframe;
+    private boolean synced; // false until the first keyframe
+    private long keyframes, deltas, bytesRead;
+
+    /**
+     * Connect to a frame server.
+     * @param host The server's host.
+     * @param port The server's port.
+     * @throws IOException If the connection fails.
+     */
+    public FrameStreamClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Read the next message and apply it to the cells.
+     * @return false if the server has closed the stream.
+     * @throws IOException If the stream breaks or holds a bad message.
+     */
+    public boolean readFrame() throws IOException {
+        header.clear();
+        if (!readFully(header)) {
+            return false;
+        }
+        header.flip();
+        if (header.getInt() != FrameServer.MAGIC) {
+            throw new IOException("Not a frame stream");
+        }
+        byte type = header.get();
+        int frameStep = header.getInt();
+        int frameDepth = header.getInt();
+        int frameWidth = header.getInt();
+        int length = header.getInt();
+        if (payload.capacity() < length) {
+            payload = ByteBuffer.allocateDirect(length);
+        }
+        payload.clear().limit(length);
+        if (!readFully(payload)) {
+            throw new EOFException("Stream ended inside a message");
+        }
+        payload.flip();
+        bytesRead += FrameServer.HEADER_BYTES + length;
+
+        if (type == FrameServer.KEYFRAME) {
+            if (frameDepth != depth || frameWidth != width) {
+                depth = frameDepth;
+                width = frameWidth;
+                cells = new byte[depth * width];
+            }
+            applyKeyframe();
+            synced = true;
+            keyframes++;
+        }
+        else if (synced && frameDepth == depth && frameWidth == width) {
+            applyDelta();
+            deltas++;
+        }
+        else {
+            return true; // a delta with nothing to apply it to
+        }
+        step = frameStep;
+        keyframe = type == FrameServer.KEYFRAME;
+        return true;
+    }
+
+    private void applyKeyframe() throws IOException {
+        int i = 0;
+        while (payload.hasRemaining()) {
+            int run = getVarint();
+            byte value = payload.get();
+            if (i + run > cells.length) {
+                throw new IOException("Keyframe overruns the field");
+            }
+            for (int end = i + run; i < end; i++) {
+                cells[i] = value;
+            }
+        }
+    }
+
+    private void applyDelta() throws IOException {
+        int i = 0;
+        while (payload.hasRemaining()) {
+            i += getVarint();
+            int changed = getVarint();
+            if (i + changed > cells.length) {
+                throw new IOException("Delta overruns the field");
+            }
+            payload.get(cells, i, changed);
+            i += changed;
+        }
+    }
+
+    private int getVarint() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = payload.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Stream ended inside a message");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Disconnect.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Return the cells as of the last message, in row-major order. The
+     * array is updated in place by readFrame().
+     * @return The cells.
+     */
+    public byte[] getCells() {
+        return cells;
+    }
+
+    /**
+     * @return The step the cells show, or -1 before the first keyframe.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return true if the last message was a keyframe.
+     */
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+
+    /**
+     * @return A summary of the messages received.
+     */
+    public String getDetails() {
+        return String.format("step %d: %d keyframes, %d deltas, %.1f KB received",
+                             step, keyframes, deltas, bytesRead / 1024.0);
+    }
+
+    /**
+     * Connect to a server and print what arrives.
+     * @param args host, port and the number of messages to read (default
+     *             all).
+     */
+    public static void main(String[] args) throws IOException {
+        FrameStreamClient client = new FrameStreamClient(args[0], Integer.parseInt(args[1]));
+        long limit = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+        for (long n = 0; n < limit && client.readFrame(); n++) {
+            int[] population = new int[FieldSnapshot.SPECIES_MASK + 1];
+            for (byte cell : client.getCells()) {
+                population[cell & FieldSnapshot.SPECIES_MASK]++;
+            }
+            StringBuilder line = new StringBuilder(client.isKeyframe() ? "key   " : "delta ");
+            line.append(client.getStep());
+            for (Species species : Species.values()) {
+                line.append(' ').append(species.getAnimalClass().getSimpleName())
+                    .append('=').append(population[species.getCode()]);
+            }
+            System.out.println(line);
+        }
+        System.out.println(client.getDetails());
+        client.close();
+    }
+}
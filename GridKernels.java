@@ -0,0 +1,167 @@
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Whole-grid passes over the one-byte-per-cell layers (the cells of a
+ * FieldSnapshot, and the state and biomass bytes of an OffHeapField):
+ * counting animals per species, counting infected animals, planting empty
+ * cells and packing separate state and plant bytes into snapshot bytes.
+ *
+ * Cells are encoded as in FieldSnapshot. Layers are passed as memory
+ * segments, so the same kernels work on byte arrays (wrapped with
+ * MemorySegment.ofArray) and on off-heap memory.
+ *
+ * Two implementations exist: VectorKernels, which uses the incubating
+ * Vector API (jdk.incubator.vector) to work on many cells per
+ * instruction, and ScalarKernels, a plain loop. get() returns the vector
+ * kernels when the JVM was started with --add-modules jdk.incubator.vector
+ * and the scalar ones otherwise. Both give exactly the same results.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public abstract class GridKernels {
+
+    private static GridKernels best;
+
+    /**
+     * Return the fastest kernels this JVM can run. Set the system
+     * property "kernels" to "scalar" to rule out the vector kernels.
+     * @return The kernels.
+     */
+    public static synchronized GridKernels get() {
+        if (best == null) {
+            best = new ScalarKernels();
+            if (!"scalar".equals(System.getProperty("kernels"))) {
+                try {
+                    // Loaded by name, so that this class still loads when
+                    // the Vector API module is missing.
+                    best = (GridKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+                }
+                catch (ReflectiveOperationException | LinkageError e) {
+                    // no Vector API; keep the scalar kernels
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return A short name for the kernels, for reports.
+     */
+    public abstract String getName();
+
+    /**
+     * Count the cells of each species code, and the infected ones.
+     * @param cells Cells encoded as in FieldSnapshot.
+     * @param offset The byte offset of the first cell.
+     * @param count The number of cells.
+     * @param population Receives, added to what it holds, the number of
+     *                   cells with each species code (0 for none); length 8.
+     * @param infected Receives, added to what it holds, the number of sick
+     *                 animals of each species code; length 8.
+     */
+    public abstract void histogram(MemorySegment cells, long offset, long count,
+                                   long[] population, long[] infected);
+
+    /**
+     * Count the cells holding a sick animal.
+     * @param cells Cells encoded as in FieldSnapshot.
+     * @param offset The byte offset of the first cell.
+     * @param count The number of cells.
+     * @return The number of sick animals.
+     */
+    public abstract long countInfected(MemorySegment cells, long offset, long count);
+
+    /**
+     * Give a plant to every cell with neither an animal nor a plant.
+     * @param state Species code and sickness of each cell; 0 if empty.
+     * @param stateOffset The byte offset of the first cell's state.
+     * @param biomass Plant biomass of each cell; 0 if none.
+     * @param biomassOffset The byte offset of the first cell's biomass.
+     * @param count The number of cells.
+     * @param plant The biomass of a new plant; must not be 0.
+     * @return The number of cells planted.
+     */
+    public abstract long fillPlants(MemorySegment state, long stateOffset,
+                                    MemorySegment biomass, long biomassOffset, long count, byte plant);
+
+    /**
+     * Combine state and biomass bytes into snapshot bytes: the state with
+     * FieldSnapshot.PLANT_FLAG added where the biomass is not 0.
+     * @param state Species code and sickness of each cell.
+     * @param stateOffset The byte offset of the first cell's state.
+     * @param biomass Plant biomass of each cell.
+     * @param biomassOffset The byte offset of the first cell's biomass.
+     * @param out Receives the snapshot bytes.
+     * @param outOffset The byte offset of the first output cell.
+     * @param count The number of cells.
+     */
+    public abstract void pack(MemorySegment state, long stateOffset, MemorySegment biomass, long biomassOffset,
+                              MemorySegment out, long outOffset, long count);
+
+    /**
+     * Time the scalar and vector kernels against each other on a random
+     * grid and check that they agree.
+     * @param args The number of cells (default 16M) and of repetitions
+     *             (default 20).
+     */
+    public static void main(String[] args) {
+        int cells = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 24;
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        byte[] state = new byte[cells];
+        byte[] biomass = new byte[cells];
+        Random rand = new Random(1);
+        for (int i = 0; i < cells; i++) {
+            if (rand.nextDouble() < 0.26) {
+                state[i] = (byte) ((1 + rand.nextInt(5)) | (rand.nextInt(4) == 0 ? FieldSnapshot.SICK_FLAG : 0));
+            }
+            else if (rand.nextBoolean()) {
+                biomass[i] = 1;
+            }
+        }
+
+        GridKernels[] kernels = { new ScalarKernels(), get() };
+        long[] checks = new long[kernels.length];
+        for (int k = 0; k < kernels.length; k++) {
+            GridKernels kernel = kernels[k];
+            MemorySegment stateSegment = MemorySegment.ofArray(state);
+            MemorySegment packed = MemorySegment.ofArray(new byte[cells]);
+            long[] population = new long[8];
+            long[] infected = new long[8];
+            long[] nanos = new long[4];
+            long check = 0;
+            for (int r = 0; r < repeats; r++) {
+                MemorySegment plants = MemorySegment.ofArray(biomass.clone());
+                long t0 = System.nanoTime();
+                kernel.histogram(stateSegment, 0, cells, population, infected);
+                long t1 = System.nanoTime();
+                check += kernel.countInfected(stateSegment, 0, cells);
+                long t2 = System.nanoTime();
+                kernel.pack(stateSegment, 0, plants, 0, packed, 0, cells);
+                long t3 = System.nanoTime();
+                check += kernel.fillPlants(stateSegment, 0, plants, 0, cells, (byte) 1);
+                long t4 = System.nanoTime();
+                if (r >= repeats / 2) { // the first half warms up
+                    nanos[0] += t1 - t0;
+                    nanos[1] += t2 - t1;
+                    nanos[2] += t3 - t2;
+                    nanos[3] += t4 - t3;
+                }
+            }
+            for (int code = 0; code < 8; code++) {
+                check = check * 31 + population[code] * 7 + infected[code];
+            }
+            check = check * 31 + Arrays.hashCode(packed.toArray(ValueLayout.JAVA_BYTE));
+            checks[k] = check;
+            int timed = repeats - repeats / 2;
+            System.out.printf("%-7s histogram %.2f ms, infected %.2f ms, pack %.2f ms, plant fill %.2f ms%n",
+                              kernel.getName(), nanos[0] / 1e6 / timed, nanos[1] / 1e6 / timed,
+                              nanos[2] / 1e6 / timed, nanos[3] / 1e6 / timed);
+        }
+        System.out.println(checks[0] == checks[1] ? "Results agree." : "RESULTS DIFFER");
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * An alternative way of running a simulation step, in two phases, whose
+ * outcome does not depend on the order of the animal list or on how many
+ * threads are used.
+ *
+ * In the first phase every animal works out, in parallel, what it intends
+ * to do: whether it survives ageing, sickness and hunger; how many young
+ * it has and where; which prey it eats; and where it moves. This phase
+ * only reads the field, and each animal draws its random numbers from a
+ * generator seeded by the run's seed, the step and its cell. In the
+ * second phase the intents are applied one animal at a time, in an order
+ * given by a seeded priority. Conflicts, such as two animals wanting the
+ * same cell or a prey that has already been eaten, go to the animal with
+ * the higher priority. The loser falls back to its next choice, and dies
+ * of overcrowding if it has none, as in act().
+ *
+ * The rules are the same as in the species' act methods. Disease is not
+ * part of the step; the simulator's DiseasePass spreads it afterwards,
+ * drawing each chance of infection from this engine by step and cells.
+ *
+ * Seeds and priorities are taken from an animal's cell in the whole
+ * world, so a field that holds one strip of a larger world (see
+ * ShardWorker) draws the same numbers for the same animals. Equal
+ * priorities are settled by cell.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class IntentEngine {
+
+    private final long seed;
+    private final int rowOffset;
+
+    /**
+     * Create an engine whose random choices follow from the given seed.
+     * @param seed The seed of the run.
+     */
+    public IntentEngine(long seed) {
+        this(seed, 0);
+    }
+
+    /**
+     * Create an engine for a field that holds one strip of a larger world.
+     * @param seed The seed of the run.
+     * @param rowOffset The row of the world that is row 0 of the field.
+     */
+    public IntentEngine(long seed, int rowOffset) {
+        this.seed = seed;
+        this.rowOffset = rowOffset;
+    }
+
+    /**
+     * Run one step for the given animals.
+     * @param animals The animals to simulate; the dead are removed and the
+     *                newborn added.
+     * @param field The field the animals live in.
+     * @param step The number of the step being run.
+     */
+    public void step(List<Animal> animals, Field field, int step) {
+        animals.removeIf(animal -> animal == null || !animal.isAlive());
+        Animal[] actors = animals.toArray(new Animal[0]);
+        Intent[] intents = new Intent[actors.length];
+
+        // Phase one: plan in parallel against the unchanged field.
+        IntStream.range(0, actors.length).parallel()
+                 .forEach(i -> intents[i] = plan(actors[i], field, step));
+
+        // Phase two: apply the plans in seeded priority order.
+        Integer[] order = new Integer[actors.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> intents[a].compareTo(intents[b]));
+        List<Animal> newAnimals = new ArrayList<>();
+        for (int i : order) {
+            apply(actors[i], intents[i], field, newAnimals);
+        }
+
+        animals.removeIf(animal -> !animal.isAlive());
+        animals.addAll(newAnimals);
+    }
+
+    /**
+     * Work out what an animal intends to do this step, without changing
+     * anything.
+     */
+    Intent plan(Animal animal, Field field, int step) {
+        Location location = animal.getLocation();
+        int width = field.getWidth();
+        long cell = (long) (location.getRow() + rowOffset) * width + location.getCol();
+        SplittableRandom rand = new SplittableRandom(mix(seed, step, cell));
+        Intent intent = new Intent(mix(seed ^ 0x5DEECE66DL, step, cell), cell);
+
+        // Ageing, sickness and hunger, as they will be once applied.
+        int age = animal.age + (animal.isSick() ? 2 : 1);
+        int food = animal.foodLevel - 1;
+        if (age > animal.getMaxAge() || (animal.isPredator() && food <= 0)) {
+            return intent; // will die before doing anything
+        }
+
+        long[] neighbours = new long[8];
+        int count = field.adjacentCells(location.getRow(), location.getCol(), neighbours);
+        shuffle(neighbours, count, rand);
+
+        List<Location> free = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Location next = new Location((int) (neighbours[i] / width), (int) (neighbours[i] % width));
+            Animal other = field.getObjectAt(next);
+            if (other == null) {
+                free.add(next);
+            }
+        }
+
+        int births = 0;
+        if (animal.canBreed() && rand.nextDouble() <= animal.animalsBreedingProbability) {
+            births = rand.nextInt(animal.litterSize) + 1;
+        }
+        for (int b = 0; b < births && b < free.size(); b++) {
+            intent.births.add(free.get(b));
+        }
+
+        if (animal.isPredator() && food < animal.getFullFoodLevel() - 3) {
+            for (int i = 0; i < count && intent.prey == null; i++) {
+                Location next = new Location((int) (neighbours[i] / width), (int) (neighbours[i] % width));
+                Animal other = field.getObjectAt(next);
+                if (other != null && !other.isPredator() && other.isAlive()) {
+                    intent.prey = other;
+                    intent.preyLocation = next;
+                }
+            }
+        }
+        intent.moves.addAll(free.subList(Math.min(births, free.size()), free.size()));
+        return intent;
+    }
+
+    /**
+     * Carry out an animal's intent as far as the animals applied before it
+     * allow.
+     */
+    void apply(Animal animal, Intent intent, Field field, List<Animal> newAnimals) {
+        if (!animal.isAlive()) {
+            return; // eaten by an animal with higher priority
+        }
+        animal.incrementAge();
+        animal.updateSickness();
+        animal.incrementHunger();
+        if (!animal.isAlive()) {
+            return;
+        }
+
+        for (Location where : intent.births) {
+            if (field.getObjectAt(where) == null) {
+                Animal young = animal.mateWith(animal, field, where);
+                if (young != null) {
+                    newAnimals.add(young);
+                }
+            }
+        }
+
+        Animal prey = intent.prey;
+        if (prey != null && prey.isAlive() && intent.preyLocation.equals(prey.getLocation())) {
+            prey.setDead();
+            animal.foodLevel = prey.getTheFoodValue();
+            field.animalAged(animal);
+            field.place(new Plant(), intent.preyLocation.getRow(), intent.preyLocation.getCol());
+            animal.setLocation(intent.preyLocation);
+            return;
+        }
+        for (Location where : intent.moves) {
+            if (field.getObjectAt(where) == null) {
+                animal.setLocation(where);
+                return;
+            }
+        }
+        FlightEvents.overcrowded(animal);
+        animal.setDead(); // overcrowding
+    }
+
+    /**
+     * Return a number from 0 (inclusive) to 1 (exclusive) that follows
+     * from the seed, the step and a pair of cells alone, for chances that
+     * one animal has of doing something to another, such as infecting it.
+     * @param step The step being run.
+     * @param from The acting animal's cell, row * width + col in the field.
+     * @param to The other animal's cell, in the same form.
+     * @param width The width of the field.
+     * @return The number.
+     */
+    public double chance(int step, long from, long to, int width) {
+        long offset = (long) rowOffset * width;
+        long z = mix(seed ^ 0x2545F4914F6CDD1DL, step, (from + offset) * 0x9E3779B97F4A7C15L + to + offset);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Shuffle the first count entries of an array.
+     */
+    private static void shuffle(long[] values, int count, SplittableRandom rand) {
+        for (int i = count - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            long swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    /**
+     * Mix a seed, a step and a cell into one well-spread 64-bit value.
+     */
+    private static long mix(long seed, int step, long cell) {
+        long z = seed + 0x9E3779B97F4A7C15L * (step + 1) + 0xC2B2AE3D27D4EB4FL * (cell + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * What one animal intends to do in a step. Intents are ordered as
+     * they are applied.
+     */
+    static class Intent implements Comparable<Intent> {
+        final long priority;
+        final long cell; // the animal's cell in the whole world
+        final List<Location> births = new ArrayList<>(2);
+        final List<Location> moves = new ArrayList<>(8);
+        Animal prey;
+        Location preyLocation;
+
+        Intent(long priority, long cell) {
+            this.priority = priority;
+            this.cell = cell;
+        }
+
+        @Override
+        public int compareTo(Intent other) {
+            int order = Long.compare(priority, other.priority);
+            return order != 0 ? order : Long.compare(cell, other.cell);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in nanoseconds, in the manner of
+ * HdrHistogram: values are counted in buckets that are linear within
+ * each power of two, so every value is held to within about 3% however
+ * large it is, in a fixed amount of memory and without allocating.
+ *
+ * Values below 64 have a bucket each. Above that, each power of two
+ * from 2^k to 2^(k+1) is split into 32 equal buckets. Percentiles are
+ * reported as the highest value of the bucket they fall in, so they
+ * never understate a latency.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;        // 64
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;        // 32
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long min = Long.MAX_VALUE, max;
+    private double sum;
+
+    /**
+     * Count one value.
+     * @param nanos The value; negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        total++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Add every value counted by another histogram.
+     * @param other The histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forget every value.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The highest value that falls in the bucket with the given index.
+     */
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF_SUB_BUCKETS - 1;
+        long subBucket = index - shift * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * @return The number of values counted.
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * @return The smallest value counted, or 0 if there are none.
+     */
+    public long getMin() {
+        return total == 0 ? 0 : min;
+    }
+
+    /**
+     * @return The largest value counted, exactly.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return The mean of the values counted.
+     */
+    public double getMean() {
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * Return the value below which the given share of the values fall.
+     * @param percentile The share, from 0 to 100.
+     * @return The value, or 0 if no values have been counted.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+}
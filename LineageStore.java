@@ -0,0 +1,358 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A record of who descends from whom, for studying how traits spread
+ * through the populations over time.
+ *
+ * Every animal born while the store is attached to a field gets a lineage
+ * id, and a record of its id, its parent's id, the step of its birth, its
+ * gene (packed four bits per digit) and its species. The records are kept
+ * in order of id in fixed-size chunks of primitive arrays, so a record
+ * costs 30 bytes and no object of its own.
+ *
+ * Records are only added at the end. Every so often the store is pruned:
+ * the records of dead animals that have no living descendant are dropped,
+ * since no living animal can ever lead back to them. If the store is still
+ * over its memory budget after that, the oldest records are dropped as
+ * well, and their children become roots with an unknown parent; the most
+ * recent history is kept.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class LineageStore implements FieldListener {
+
+    /**
+     * The traits encoded in a gene, each a pair of digits.
+     */
+    public enum Trait {
+        BREEDING_AGE(0), MAX_AGE(2), BREEDING_PROBABILITY(4),
+        LITTER_SIZE(6), DISEASE_PROBABILITY(8), METABOLISM(10);
+
+        private final int digit;
+
+        Trait(int digit) {
+            this.digit = digit;
+        }
+
+        /**
+         * Read this trait from a gene string.
+         * @param gene The gene.
+         * @return The trait's two digits as a number, 0 to 99.
+         */
+        public int valueIn(String gene) {
+            return (gene.charAt(digit) - '0') * 10 + (gene.charAt(digit + 1) - '0');
+        }
+    }
+
+    // Id of the parent of founders and of animals whose parent was pruned.
+    public static final long NO_PARENT = -1;
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    // id, parent, birth step, gene, species and flags
+    private static final int RECORD_BYTES = 8 + 8 + 4 + 8 + 1 + 1;
+    private static final byte ALIVE = 1;
+    private static final byte MARKED = 2;
+
+    private final long budgetBytes;
+    private final int pruneInterval;
+    private List<Chunk> chunks = new ArrayList<>();
+    private long size;
+    private long nextId = 1;
+    private int step;
+
+    /**
+     * Create an empty store.
+     * @param budgetBytes The most memory the records may take.
+     * @param pruneInterval Prune every this many steps.
+     */
+    public LineageStore(long budgetBytes, int pruneInterval) {
+        if (budgetBytes < (long) CHUNK_SIZE * RECORD_BYTES * 2) {
+            throw new IllegalArgumentException("Budget too small for a lineage store");
+        }
+        this.budgetBytes = budgetBytes;
+        this.pruneInterval = pruneInterval;
+    }
+
+    /**
+     * One block of records, as parallel arrays.
+     */
+    private static class Chunk {
+        final long[] id = new long[CHUNK_SIZE];
+        final long[] parent = new long[CHUNK_SIZE];
+        final int[] birthStep = new int[CHUNK_SIZE];
+        final long[] gene = new long[CHUNK_SIZE];
+        final byte[] species = new byte[CHUNK_SIZE];
+        final byte[] flags = new byte[CHUNK_SIZE];
+    }
+
+    /**
+     * Forget every record, as when the simulation is reset.
+     */
+    public void clear() {
+        chunks = new ArrayList<>();
+        size = 0;
+        step = 0;
+    }
+
+    /**
+     * Tell the store which step is being run, and prune it when due.
+     * @param step The step.
+     */
+    public void stepStarted(int step) {
+        this.step = step;
+        if (pruneInterval > 0 && step % pruneInterval == 0) {
+            prune();
+        }
+    }
+
+    @Override
+    public void animalBorn(Animal animal) {
+        if (animal.lineageId == 0) {
+            animal.lineageId = append(NO_PARENT, animal);
+        }
+    }
+
+    @Override
+    public void animalBred(Animal young, Animal parent) {
+        // The young has just been recorded, by animalBorn, as the newest
+        // record; fill in its parent.
+        long index = indexOf(young.lineageId);
+        if (index >= 0) {
+            chunk(index).parent[offset(index)] = parent.lineageId == 0 ? NO_PARENT : parent.lineageId;
+        }
+    }
+
+    @Override
+    public void animalDied(Animal animal) {
+        long index = indexOf(animal.lineageId);
+        if (index >= 0) {
+            chunk(index).flags[offset(index)] &= ~ALIVE;
+        }
+    }
+
+    /**
+     * Add a record for an animal and return its id.
+     */
+    private long append(long parent, Animal animal) {
+        if (size == (long) chunks.size() * CHUNK_SIZE) {
+            if ((long) (chunks.size() + 1) * CHUNK_SIZE * RECORD_BYTES > budgetBytes) {
+                prune();
+            }
+            if (size == (long) chunks.size() * CHUNK_SIZE) {
+                chunks.add(new Chunk());
+            }
+        }
+        long id = nextId++;
+        Chunk chunk = chunk(size);
+        int at = offset(size);
+        chunk.id[at] = id;
+        chunk.parent[at] = parent;
+        chunk.birthStep[at] = step;
+        chunk.gene[at] = packGene(animal.getGene());
+        chunk.species[at] = (byte) Species.of(animal).getCode();
+        chunk.flags[at] = ALIVE;
+        size++;
+        return id;
+    }
+
+    private Chunk chunk(long index) {
+        return chunks.get((int) (index >>> CHUNK_SHIFT));
+    }
+
+    private static int offset(long index) {
+        return (int) (index & (CHUNK_SIZE - 1));
+    }
+
+    private long idAt(long index) {
+        return chunk(index).id[offset(index)];
+    }
+
+    /**
+     * Find the position of a record by binary search on the ids, which
+     * are in increasing order.
+     * @return The position, or -1 if there is no such record.
+     */
+    private long indexOf(long id) {
+        long low = 0;
+        long high = size - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midId = idAt(mid);
+            if (midId < id) {
+                low = mid + 1;
+            }
+            else if (midId > id) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pack a gene of decimal digits into four bits per digit.
+     */
+    private static long packGene(String gene) {
+        long packed = 0;
+        for (int i = 0; i < gene.length() && i < 16; i++) {
+            packed |= (long) (gene.charAt(i) - '0') << (4 * i);
+        }
+        return packed;
+    }
+
+    private static int traitOf(long packedGene, Trait trait) {
+        int tens = (int) (packedGene >>> (4 * trait.digit)) & 0xF;
+        int units = (int) (packedGene >>> (4 * (trait.digit + 1))) & 0xF;
+        return tens * 10 + units;
+    }
+
+    /**
+     * Drop the records that no living animal descends from, then, while
+     * over budget, the oldest records.
+     */
+    public void prune() {
+        // Mark every living animal and its ancestors, youngest first: a
+        // parent always has a smaller id, so one backward sweep suffices.
+        for (long index = size - 1; index >= 0; index--) {
+            Chunk chunk = chunk(index);
+            int at = offset(index);
+            if ((chunk.flags[at] & (ALIVE | MARKED)) != 0) {
+                long parent = indexOf(chunk.parent[at]);
+                if (parent >= 0) {
+                    chunk(parent).flags[offset(parent)] |= MARKED;
+                }
+            }
+        }
+        long keepFrom = 0;
+        long maxRecords = budgetBytes / RECORD_BYTES;
+        long kept = 0;
+        for (long index = 0; index < size; index++) {
+            if ((chunk(index).flags[offset(index)] & (ALIVE | MARKED)) != 0) {
+                kept++;
+            }
+        }
+        // Over budget: skip the oldest kept records.
+        long toSkip = Math.max(0, kept - maxRecords * 3 / 4);
+
+        List<Chunk> old = chunks;
+        long oldSize = size;
+        chunks = new ArrayList<>();
+        size = 0;
+        for (long index = 0; index < oldSize; index++) {
+            Chunk from = old.get((int) (index >>> CHUNK_SHIFT));
+            int at = offset(index);
+            if ((from.flags[at] & (ALIVE | MARKED)) == 0) {
+                continue;
+            }
+            if (toSkip > 0) {
+                toSkip--;
+                keepFrom = from.id[at] + 1;
+                continue;
+            }
+            if (size == (long) chunks.size() * CHUNK_SIZE) {
+                chunks.add(new Chunk());
+            }
+            Chunk to = chunk(size);
+            int put = offset(size);
+            to.id[put] = from.id[at];
+            to.parent[put] = from.parent[at] < keepFrom ? NO_PARENT : from.parent[at];
+            to.birthStep[put] = from.birthStep[at];
+            to.gene[put] = from.gene[at];
+            to.species[put] = from.species[at];
+            to.flags[put] = (byte) (from.flags[at] & ALIVE);
+            size++;
+        }
+    }
+
+    /**
+     * @return The number of records held.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The memory taken by the records, in bytes.
+     */
+    public long getMemoryUsed() {
+        return (long) chunks.size() * CHUNK_SIZE * RECORD_BYTES;
+    }
+
+    /**
+     * Return the lineage id of an animal.
+     * @param animal The animal.
+     * @return Its id, or 0 if it was born before the store was attached.
+     */
+    public static long idOf(Animal animal) {
+        return animal.lineageId;
+    }
+
+    /**
+     * Return the parent of a recorded animal.
+     * @param id The animal's lineage id.
+     * @return The parent's id, or NO_PARENT if the animal is a founder, its
+     *         parent has been pruned or it is not recorded.
+     */
+    public long getParent(long id) {
+        long index = indexOf(id);
+        return index < 0 ? NO_PARENT : chunk(index).parent[offset(index)];
+    }
+
+    /**
+     * Find the most recent common ancestor of two animals. An animal
+     * counts as its own ancestor.
+     * @param first The lineage id of one animal.
+     * @param second The lineage id of the other.
+     * @return The id of the common ancestor, or NO_PARENT if the recorded
+     *         history does not join them.
+     */
+    public long commonAncestor(long first, long second) {
+        Set<Long> ancestors = new HashSet<>();
+        for (long id = first; id != NO_PARENT && indexOf(id) >= 0; id = getParent(id)) {
+            ancestors.add(id);
+        }
+        for (long id = second; id != NO_PARENT && indexOf(id) >= 0; id = getParent(id)) {
+            if (ancestors.contains(id)) {
+                return id;
+            }
+        }
+        return NO_PARENT;
+    }
+
+    /**
+     * Return how a trait of a species has changed over time: the mean
+     * value of the trait among the animals born in each period.
+     * @param species The species.
+     * @param trait The trait.
+     * @param period The number of steps per period.
+     * @return The mean per period, from step 0 to the current step; NaN
+     *         for periods in which no recorded animal was born.
+     */
+    public double[] traitTrajectory(Species species, Trait trait, int period) {
+        int periods = step / period + 1;
+        double[] sums = new double[periods];
+        int[] counts = new int[periods];
+        byte code = (byte) species.getCode();
+        for (long index = 0; index < size; index++) {
+            Chunk chunk = chunk(index);
+            int at = offset(index);
+            if (chunk.species[at] == code) {
+                int p = Math.min(periods - 1, chunk.birthStep[at] / period);
+                sums[p] += traitOf(chunk.gene[at], trait);
+                counts[p]++;
+            }
+        }
+        for (int p = 0; p < periods; p++) {
+            sums[p] = counts[p] == 0 ? Double.NaN : sums[p] / counts[p];
+        }
+        return sums;
+    }
+}
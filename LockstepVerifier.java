@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Run two simulations side by side, step for step, and find the first
+ * step after which their worlds differ.
+ *
+ * Both fields keep a StateDigest, so each step is checked by comparing
+ * two numbers. Only when the digests differ are the fields compared cell
+ * by cell, to say where they differ.
+ *
+ * The simulations share the global randomizer. To give both the same
+ * random numbers it is reseeded before each is built and before each
+ * takes a step, with a seed made from the run's seed and the step
+ * number. Runs under the verifier therefore differ from ordinary runs,
+ * but two engines that follow the same rules take the same course.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class LockstepVerifier {
+
+    // The most differing cells listed in a report.
+    private static final int MAX_LISTED_CELLS = 20;
+
+    /**
+     * Where two simulations first differ.
+     */
+    public static class Divergence {
+        private final int step;
+        private final long digestA, digestB;
+        private final int differingCells;
+        private final List<String> cells;
+
+        Divergence(int step, long digestA, long digestB, int differingCells, List<String> cells) {
+            this.step = step;
+            this.digestA = digestA;
+            this.digestB = digestB;
+            this.differingCells = differingCells;
+            this.cells = cells;
+        }
+
+        /**
+         * @return The first step after which the digests differ; 0 if
+         *         they differ from the start.
+         */
+        public int getStep() {
+            return step;
+        }
+
+        /**
+         * @return The number of cells whose contents differ.
+         */
+        public int getDifferingCells() {
+            return differingCells;
+        }
+
+        /**
+         * @return The first differing cells, one line each.
+         */
+        public List<String> getCells() {
+            return cells;
+        }
+
+        /**
+         * Return a report of the divergence.
+         */
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("Diverged after step %d: digest %016x against %016x, %d cells differ%n",
+                                     step, digestA, digestB, differingCells));
+            for (String cell : cells) {
+                out.append("  ").append(cell).append(System.lineSeparator());
+            }
+            if (differingCells > cells.size()) {
+                out.append("  ...").append(System.lineSeparator());
+            }
+            return out.toString();
+        }
+    }
+
+    /**
+     * Something that builds a simulation, such as a constructor reference.
+     */
+    public interface Engine {
+        Simulator build();
+    }
+
+    private final Simulator a, b;
+    private final long seed;
+
+    /**
+     * Build two simulations from the same seed, ready to run in lockstep.
+     * @param engineA Builds the first simulation, usually the reference.
+     * @param engineB Builds the second.
+     * @param seed The seed of the run.
+     */
+    public LockstepVerifier(Engine engineA, Engine engineB, long seed) {
+        this.seed = seed;
+        Randomizer.reset(seed);
+        a = engineA.build();
+        Randomizer.reset(seed);
+        b = engineB.build();
+        a.getField().enableDigest();
+        b.getField().enableDigest();
+    }
+
+    /**
+     * Run both simulations until they differ or the steps run out.
+     * @param steps The number of steps to run.
+     * @return Where they first differ, or null if they never do.
+     */
+    public Divergence run(int steps) {
+        Divergence divergence = compare();
+        for (int i = 0; i < steps && divergence == null; i++) {
+            Randomizer.reset(seed + a.getStep() + 1);
+            a.simulateOneStep();
+            Randomizer.reset(seed + b.getStep() + 1);
+            b.simulateOneStep();
+            divergence = compare();
+        }
+        return divergence;
+    }
+
+    /**
+     * @return The first simulation.
+     */
+    public Simulator getA() {
+        return a;
+    }
+
+    /**
+     * @return The second simulation.
+     */
+    public Simulator getB() {
+        return b;
+    }
+
+    /**
+     * Compare the digests, and the cells if the digests differ.
+     */
+    private Divergence compare() {
+        long digestA = a.getField().getDigest().getDigest();
+        long digestB = b.getField().getDigest().getDigest();
+        if (digestA == digestB) {
+            return null;
+        }
+        Field fieldA = a.getField();
+        Field fieldB = b.getField();
+        if (fieldA.getDepth() != fieldB.getDepth() || fieldA.getWidth() != fieldB.getWidth()) {
+            throw new IllegalArgumentException("The fields are not the same size");
+        }
+        int width = fieldA.getWidth();
+        int differing = 0;
+        List<String> cells = new ArrayList<>();
+        for (int row = 0; row < fieldA.getDepth(); row++) {
+            for (int col = 0; col < width; col++) {
+                Animal animalA = fieldA.getObjectAt(row, col);
+                Animal animalB = fieldB.getObjectAt(row, col);
+                boolean plantA = fieldA.getPlantAt(row, col) != null;
+                boolean plantB = fieldB.getPlantAt(row, col) != null;
+                int index = row * width + col;
+                if (StateDigest.keyOf(index, animalA, plantA) != StateDigest.keyOf(index, animalB, plantB)) {
+                    differing++;
+                    if (cells.size() < MAX_LISTED_CELLS) {
+                        cells.add(String.format("(%d,%d) %s | %s", row, col,
+                                                describe(animalA, plantA), describe(animalB, plantB)));
+                    }
+                }
+            }
+        }
+        if (differing == 0) {
+            // Same cells, different digests: a change was not reported to a field.
+            cells.add(String.format("digests out of date: recomputed %016x and %016x",
+                                    StateDigest.of(fieldA), StateDigest.of(fieldB)));
+        }
+        return new Divergence(a.getStep(), digestA, digestB, differing, cells);
+    }
+
+    private static String describe(Animal animal, boolean plant) {
+        if (animal == null) {
+            return plant ? "plant" : "empty";
+        }
+        return String.format("%s%s age=%d food=%d%s", Species.of(animal).name(),
+                             animal.isSick() ? " sick" : "", animal.age, animal.getFoodLevel(),
+                             plant ? " +plant" : "");
+    }
+
+    /**
+     * Return a builder for one of the engines known by name: object,
+     * chunked, off-heap, species (one loop per species) or intent (the
+     * parallel intent engine).
+     * @param name The name of the engine.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param seed The seed for engines that take one.
+     * @return The builder.
+     */
+    public static Engine engine(String name, int depth, int width, long seed) {
+        switch (name) {
+            case "object":
+                return () -> new Simulator(new Field(depth, width));
+            case "chunked":
+                return () -> new Simulator(new ChunkedField(depth, width));
+            case "off-heap":
+                return () -> new Simulator(new OffHeapField(depth, width));
+            case "species":
+                return () -> {
+                    Simulator simulator = new Simulator(new Field(depth, width));
+                    simulator.setSpeciesScheduler(new SpeciesScheduler());
+                    return simulator;
+                };
+            case "intent":
+                return () -> {
+                    Simulator simulator = new Simulator(new Field(depth, width));
+                    simulator.setIntentEngine(new IntentEngine(seed));
+                    return simulator;
+                };
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + name);
+        }
+    }
+
+    /**
+     * Run two engines in lockstep and report whether, and where, they
+     * diverge.
+     * @param args the two engine names, depth, width, number of steps
+     *             and seed.
+     */
+    public static void main(String[] args) {
+        String nameA = args.length > 0 ? args[0] : "object";
+        String nameB = args.length > 1 ? args[1] : "chunked";
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int width = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        int steps = args.length > 4 ? Integer.parseInt(args[4]) : 500;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1111;
+
+        LockstepVerifier verifier = new LockstepVerifier(engine(nameA, depth, width, seed),
+                                                         engine(nameB, depth, width, seed), seed);
+        Divergence divergence = verifier.run(steps);
+        if (divergence == null) {
+            System.out.printf("%s and %s agree for %d steps: digest %016x%n", nameA, nameB,
+                              verifier.getA().getStep(), verifier.getA().getField().getDigest().getDigest());
+        }
+        else {
+            System.out.print(divergence);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+/**
+ * An HTTP endpoint serving the state of a running simulation in the
+ * Prometheus text format, so that long runs can be watched and graphed.
+ *
+ * The simulator reports every step it finishes. Those reports only touch
+ * a few fields; about once a second (or as set) the figures are gathered
+ * into an immutable Snapshot, which is published with a single volatile
+ * write. Scrapes are served on the server's own thread from the latest
+ * snapshot, so a scrape never waits for the simulation and the simulation
+ * never waits for a scrape.
+ *
+ * Served at /metrics: steps done and steps per second; step latency
+ * quantiles over the last steps; the population and the number infected
+ * of every species, as the DiseasePass keeps them up to date; the number
+ * of live animals; and garbage collection, heap and simulation-thread
+ * allocation figures.
+ *
+ * The server listens on the loopback address unless given another one,
+ * so that the figures are not served to the network by accident.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class MetricsServer {
+
+    // Step latencies kept for the quantiles.
+    private static final int WINDOW = 1024;
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final HttpServer server;
+    private final long publishNanos;
+
+    // Written only by the simulation thread.
+    private final long[] latencies = new long[WINDOW];
+    private long steps;
+    private long latencySum;
+    private long lastPublish;
+    private long stepsAtLastPublish;
+    private final FieldStats stats = new FieldStats();
+
+    private volatile Snapshot snapshot = new Snapshot();
+
+    /**
+     * Create a server on the given port of the loopback address. It does
+     * not listen until started.
+     * @param port The port, or 0 for any free port.
+     * @param publishMillis How often the figures are gathered, in milliseconds.
+     * @throws IOException If the port cannot be bound.
+     */
+    public MetricsServer(int port, long publishMillis) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, publishMillis);
+    }
+
+    /**
+     * Create a server on the given address and port, such as a public
+     * address to be scraped from other machines. It does not listen until
+     * started.
+     * @param address The address to listen on.
+     * @param port The port, or 0 for any free port.
+     * @param publishMillis How often the figures are gathered, in milliseconds.
+     * @throws IOException If the port cannot be bound.
+     */
+    public MetricsServer(InetAddress address, int port, long publishMillis) throws IOException {
+        this.publishNanos = publishMillis * 1_000_000;
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", this::serve);
+        server.setExecutor(Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * The figures published at one moment. Never changed once published.
+     */
+    private static class Snapshot {
+        int step;
+        long steps;
+        double stepsPerSecond;
+        double[] quantiles = new double[QUANTILES.length];
+        double latencySum;
+        int[] population = new int[Species.values().length];
+        int[] infected = new int[Species.values().length];
+        long liveAnimals;
+        long allocatedBytes = -1;
+        long heapUsed;
+        String[] gcNames = new String[0];
+        long[] gcCounts = new long[0];
+        long[] gcMillis = new long[0];
+    }
+
+    /**
+     * Start answering scrapes.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop answering scrapes.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Record a finished step, and publish new figures when they are due.
+     * Called on the simulation thread.
+     * @param simulator The simulator that ran the step.
+     * @param nanos How long the step took.
+     */
+    public void stepFinished(Simulator simulator, long nanos) {
+        latencies[(int) (steps % WINDOW)] = nanos;
+        latencySum += nanos;
+        steps++;
+        long now = System.nanoTime();
+        if (now - lastPublish >= publishNanos) {
+            publish(simulator, now);
+        }
+    }
+
+    private void publish(Simulator simulator, long now) {
+        Snapshot next = new Snapshot();
+        next.step = simulator.getStep();
+        next.steps = steps;
+        if (lastPublish != 0) {
+            next.stepsPerSecond = (steps - stepsAtLastPublish) * 1e9 / (now - lastPublish);
+        }
+        lastPublish = now;
+        stepsAtLastPublish = steps;
+
+        int kept = (int) Math.min(steps, WINDOW);
+        long[] sorted = Arrays.copyOf(latencies, kept);
+        Arrays.sort(sorted);
+        for (int q = 0; q < QUANTILES.length; q++) {
+            next.quantiles[q] = kept == 0 ? Double.NaN
+                                          : sorted[(int) Math.min(kept - 1, Math.ceil(QUANTILES[q] * kept) - 1)] / 1e9;
+        }
+        next.latencySum = latencySum / 1e9;
+
+        // The disease pass counts as animals come and go, so this does not
+        // have to walk the field.
+        DiseasePass disease = simulator.getDiseasePass();
+        stats.reset();
+        for (Species species : Species.values()) {
+            stats.incrementCount(species.getAnimalClass(), disease.getPopulation(species));
+            stats.incrementInfectedCount(species.getAnimalClass(), disease.getInfected(species));
+        }
+        stats.countFinished();
+        for (Species species : Species.values()) {
+            next.population[species.ordinal()] = stats.getCount(species.getAnimalClass());
+            next.infected[species.ordinal()] = stats.getInfectedCount(species.getAnimalClass());
+            next.liveAnimals += next.population[species.ordinal()];
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            next.allocatedBytes = ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        next.heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        next.gcNames = new String[collectors.size()];
+        next.gcCounts = new long[collectors.size()];
+        next.gcMillis = new long[collectors.size()];
+        for (int i = 0; i < collectors.size(); i++) {
+            next.gcNames[i] = collectors.get(i).getName();
+            next.gcCounts[i] = collectors.get(i).getCollectionCount();
+            next.gcMillis[i] = collectors.get(i).getCollectionTime();
+        }
+        snapshot = next;
+    }
+
+    /**
+     * Answer a scrape from the latest snapshot.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        byte[] body = format(snapshot).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Write a snapshot in the Prometheus text format.
+     */
+    private static String format(Snapshot s) {
+        StringBuilder out = new StringBuilder(2048);
+        metric(out, "sim_step", "gauge", "The current step of the simulation.");
+        sample(out, "sim_step", "", s.step);
+        metric(out, "sim_steps_total", "counter", "Steps run since the server started.");
+        sample(out, "sim_steps_total", "", s.steps);
+        metric(out, "sim_steps_per_second", "gauge", "Steps run per second since the previous snapshot.");
+        sample(out, "sim_steps_per_second", "", s.stepsPerSecond);
+        metric(out, "sim_step_latency_seconds", "summary", "Time taken by a step, over the last " + WINDOW + " steps.");
+        for (int q = 0; q < QUANTILES.length; q++) {
+            sample(out, "sim_step_latency_seconds", "quantile=\"" + QUANTILES[q] + "\"", s.quantiles[q]);
+        }
+        sample(out, "sim_step_latency_seconds_sum", "", s.latencySum);
+        sample(out, "sim_step_latency_seconds_count", "", s.steps);
+        metric(out, "sim_population", "gauge", "Animals of each species in the field.");
+        for (Species species : Species.values()) {
+            sample(out, "sim_population", label(species), s.population[species.ordinal()]);
+        }
+        metric(out, "sim_infected", "gauge", "Sick animals of each species in the field.");
+        for (Species species : Species.values()) {
+            sample(out, "sim_infected", label(species), s.infected[species.ordinal()]);
+        }
+        metric(out, "sim_live_animals", "gauge", "Animals in the field.");
+        sample(out, "sim_live_animals", "", s.liveAnimals);
+        if (s.allocatedBytes >= 0) {
+            metric(out, "sim_thread_allocated_bytes_total", "counter", "Bytes allocated by the simulation thread.");
+            sample(out, "sim_thread_allocated_bytes_total", "", s.allocatedBytes);
+        }
+        metric(out, "jvm_heap_used_bytes", "gauge", "Heap in use.");
+        sample(out, "jvm_heap_used_bytes", "", s.heapUsed);
+        metric(out, "jvm_gc_collections_total", "counter", "Collections run by each collector.");
+        for (int i = 0; i < s.gcNames.length; i++) {
+            sample(out, "jvm_gc_collections_total", "gc=\"" + s.gcNames[i] + "\"", s.gcCounts[i]);
+        }
+        metric(out, "jvm_gc_collection_seconds_total", "counter", "Time spent by each collector.");
+        for (int i = 0; i < s.gcNames.length; i++) {
+            sample(out, "jvm_gc_collection_seconds_total", "gc=\"" + s.gcNames[i] + "\"", s.gcMillis[i] / 1e3);
+        }
+        return out.toString();
+    }
+
+    private static String label(Species species) {
+        return "species=\"" + species.name().toLowerCase(Locale.ROOT) + "\"";
+    }
+
+    private static void metric(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        }
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        }
+        else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+
+/**
+ * Counts of animals, infected animals and plants in square blocks of a
+ * field at every power-of-two size, for drawing a zoomed-out view without
+ * looking at every cell.
+ *
+ * Level k holds one entry per block of 2^k by 2^k cells, counting the
+ * same layers as a RangeIndex (all animals, each species, infected
+ * animals and plants). Level 0 is the cells themselves; the top level is
+ * a single block covering the whole field, so it also holds the totals.
+ * The field keeps the pyramid up to date as cells change, at a cost of
+ * one update per level, so it is only created when asked for with
+ * Field.enableMipPyramid().
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class MipPyramid {
+
+    private static final int LAYERS = RangeIndex.LAYERS;
+
+    private final int depth, width;
+    // The state of every cell, encoded as in FieldSnapshot.
+    private final byte[] cells;
+    // counts[k] holds LAYERS counts per block of level k, block by block.
+    private final int[][] counts;
+    private final int[] levelCols;
+
+    /**
+     * Create an empty pyramid for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    MipPyramid(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        cells = new byte[depth * width];
+        int levels = 1;
+        while ((1 << (levels - 1)) < Math.max(depth, width)) {
+            levels++;
+        }
+        counts = new int[levels][];
+        levelCols = new int[levels];
+        for (int level = 1; level < levels; level++) {
+            int rows = blocks(depth, level);
+            levelCols[level] = blocks(width, level);
+            counts[level] = new int[rows * levelCols[level] * LAYERS];
+        }
+        levelCols[0] = width;
+    }
+
+    private static int blocks(int cells, int level) {
+        return (cells + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Empty the pyramid, as when the field is cleared.
+     */
+    void reset() {
+        Arrays.fill(cells, (byte) 0);
+        for (int level = 1; level < counts.length; level++) {
+            Arrays.fill(counts[level], 0);
+        }
+    }
+
+    /**
+     * Load the whole contents of a field.
+     * @param field The field; must be this pyramid's size.
+     */
+    void rebuild(Field field) {
+        reset();
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                update(row, col, FieldSnapshot.encode(field.getObjectAt(row, col),
+                                                      field.getPlantAt(row, col) != null));
+            }
+        }
+    }
+
+    /**
+     * Record the new state of a cell.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param state The cell's state, encoded as in FieldSnapshot.
+     */
+    void update(int row, int col, byte state) {
+        int index = row * width + col;
+        byte old = cells[index];
+        if (old == state) {
+            return;
+        }
+        cells[index] = state;
+        for (int level = 1; level < counts.length; level++) {
+            int base = ((row >> level) * levelCols[level] + (col >> level)) * LAYERS;
+            int[] blockCounts = counts[level];
+            adjust(blockCounts, base, old, -1);
+            adjust(blockCounts, base, state, 1);
+        }
+    }
+
+    private static void adjust(int[] blockCounts, int base, byte state, int amount) {
+        int species = state & FieldSnapshot.SPECIES_MASK;
+        if (species != 0) {
+            blockCounts[base + RangeIndex.ANIMALS] += amount;
+            blockCounts[base + species] += amount;
+        }
+        if ((state & FieldSnapshot.SICK_FLAG) != 0) {
+            blockCounts[base + RangeIndex.INFECTED] += amount;
+        }
+        if ((state & FieldSnapshot.PLANT_FLAG) != 0) {
+            blockCounts[base + RangeIndex.PLANTS] += amount;
+        }
+    }
+
+    /**
+     * @return The number of levels, the cells included.
+     */
+    public int getLevels() {
+        return counts.length;
+    }
+
+    /**
+     * @param level A level.
+     * @return The number of rows of blocks at that level.
+     */
+    public int getBlockRows(int level) {
+        return blocks(depth, level);
+    }
+
+    /**
+     * @param level A level.
+     * @return The number of columns of blocks at that level.
+     */
+    public int getBlockCols(int level) {
+        return blocks(width, level);
+    }
+
+    /**
+     * Return a count for one block.
+     * @param level The level; 0 for single cells.
+     * @param blockRow The row of the block at that level.
+     * @param blockCol The column of the block at that level.
+     * @param layer A RangeIndex layer.
+     * @return The number of cells of the block in the layer.
+     */
+    public int count(int level, int blockRow, int blockCol, int layer) {
+        if (level == 0) {
+            byte state = cells[blockRow * width + blockCol];
+            switch (layer) {
+                case RangeIndex.ANIMALS:
+                    return (state & FieldSnapshot.SPECIES_MASK) != 0 ? 1 : 0;
+                case RangeIndex.INFECTED:
+                    return (state & FieldSnapshot.SICK_FLAG) != 0 ? 1 : 0;
+                case RangeIndex.PLANTS:
+                    return (state & FieldSnapshot.PLANT_FLAG) != 0 ? 1 : 0;
+                default:
+                    return (state & FieldSnapshot.SPECIES_MASK) == layer ? 1 : 0;
+            }
+        }
+        return counts[level][(blockRow * levelCols[level] + blockCol) * LAYERS + layer];
+    }
+
+    /**
+     * Return the count of a layer over the whole field.
+     * @param layer A RangeIndex layer.
+     * @return The total.
+     */
+    public int total(int layer) {
+        if (counts.length == 1) {
+            return count(0, 0, 0, layer);
+        }
+        return counts[counts.length - 1][layer];
+    }
+
+    /**
+     * Sum what a block holds into a single cell state: the most common
+     * species, sick if most of those are sick, or, with no animals, a
+     * plant if at least half the block has plants.
+     * @param level The level; 0 for single cells.
+     * @param blockRow The row of the block at that level.
+     * @param blockCol The column of the block at that level.
+     * @return The representative state, encoded as in FieldSnapshot.
+     */
+    public byte dominant(int level, int blockRow, int blockCol) {
+        if (level == 0) {
+            return cells[blockRow * width + blockCol];
+        }
+        int[] blockCounts = counts[level];
+        int base = (blockRow * levelCols[level] + blockCol) * LAYERS;
+        if (blockCounts[base + RangeIndex.ANIMALS] > 0) {
+            int best = 1;
+            for (int species = 2; species <= 5; species++) {
+                if (blockCounts[base + species] > blockCounts[base + best]) {
+                    best = species;
+                }
+            }
+            boolean sick = 2 * blockCounts[base + RangeIndex.INFECTED] > blockCounts[base + RangeIndex.ANIMALS];
+            return (byte) (best | (sick ? FieldSnapshot.SICK_FLAG : 0));
+        }
+        int side = 1 << level;
+        int area = Math.min(side, depth - blockRow * side) * Math.min(side, width - blockCol * side);
+        return (byte) (2 * blockCounts[base + RangeIndex.PLANTS] >= area ? FieldSnapshot.PLANT_FLAG : 0);
+    }
+}
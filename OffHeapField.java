@@ -0,0 +1,329 @@
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A field whose cell state lives in off-heap memory rather than in arrays
+ * of object references, for worlds of billions of cells.
+ *
+ * Each cell takes six bytes: a state byte (species code in the low three
+ * bits, sickness in bit 3), a plant biomass byte and a four-byte entity
+ * handle. The handle indexes a table of the live Animal objects, which is
+ * the only part kept on the heap and is sized by the population, not by
+ * the world. The memory can be mapped to a file, so a large world can be
+ * saved and opened again without reading it in.
+ *
+ * Uses the Foreign Function &amp; Memory API (java.lang.foreign), which needs
+ * Java 22 or later.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class OffHeapField extends Field implements AutoCloseable {
+
+    private static final long MAGIC = 0x5052455950524559L; // "PREYPREY"
+    private static final long HEADER_SIZE = 64;
+    private static final int SICK_BIT = 0x08;
+    private static final int SPECIES_MASK = 0x07;
+    private static final byte PLANT_BIOMASS = 1;
+
+    // Plants carry no state of their own, so one instance serves every cell.
+    private static final Plant PLANT = new Plant();
+
+    private final Arena arena;
+    private final MemorySegment memory;
+    private final long cells;
+    private final long stateOffset, biomassOffset, handleOffset;
+
+    // Handle 0 means "no animal"; freed handles are reused.
+    private Animal[] entities = new Animal[1024];
+    private int nextHandle = 1;
+    private int[] freeHandles = new int[64];
+    private int freeCount;
+
+    /**
+     * Create an off-heap field of the given dimensions in anonymous memory.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public OffHeapField(int depth, int width) {
+        this(depth, width, Arena.ofShared(), null);
+    }
+
+    /**
+     * Create or reuse the backing memory and lay out the cell arrays in it.
+     */
+    private OffHeapField(int depth, int width, Arena arena, MemorySegment mapped) {
+        super(depth, width, false);
+        this.arena = arena;
+        cells = (long) depth * width;
+        stateOffset = HEADER_SIZE;
+        biomassOffset = stateOffset + cells;
+        handleOffset = (biomassOffset + cells + 3) & ~3L;
+        if (mapped == null) {
+            memory = arena.allocate(sizeFor(cells), 8);
+            clear();
+        }
+        else {
+            memory = mapped;
+        }
+        memory.set(ValueLayout.JAVA_LONG, 0, MAGIC);
+        memory.set(ValueLayout.JAVA_INT, 8, depth);
+        memory.set(ValueLayout.JAVA_INT, 12, width);
+    }
+
+    /**
+     * Create a new, empty field backed by a memory-mapped file. Anything
+     * already in the file is overwritten.
+     * @param file The file to hold the field.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @return The new field.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public static OffHeapField create(Path file, int depth, int width) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MemorySegment mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                               sizeFor((long) depth * width), arena);
+            OffHeapField field = new OffHeapField(depth, width, arena, mapped);
+            field.clear();
+            return field;
+        }
+        catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a field previously saved with create(). The file is mapped, not
+     * read, so this takes the same time for any size of world. Animal
+     * objects are not stored in the file: the cells keep their species,
+     * sickness and plants, and restoreAnimals() brings the animals back.
+     * @param file The file holding the field.
+     * @return The field.
+     * @throws IOException If the file cannot be mapped or is not a field.
+     */
+    public static OffHeapField open(Path file) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MemorySegment mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size(), arena);
+            int depth = mapped.get(ValueLayout.JAVA_INT, 8);
+            int width = mapped.get(ValueLayout.JAVA_INT, 12);
+            if (mapped.get(ValueLayout.JAVA_LONG, 0) != MAGIC
+                    || mapped.byteSize() < sizeFor((long) depth * width)) {
+                throw new IOException("Not a saved field: " + file);
+            }
+            OffHeapField field = new OffHeapField(depth, width, arena, mapped);
+            // Handles from the previous run refer to animals that no longer exist.
+            field.memory.asSlice(field.handleOffset, field.cells * 4).fill((byte) 0);
+            return field;
+        }
+        catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create animals for every cell that records a species but holds no
+     * animal, as after open(). The animals get a random age and new genes,
+     * and keep the sickness recorded in the cell.
+     * @return The animals created, in row-major order.
+     */
+    public List<Animal> restoreAnimals() {
+        List<Animal> restored = new ArrayList<>();
+        for (int row = 0; row < getDepth(); row++) {
+            for (int col = 0; col < getWidth(); col++) {
+                long cell = cell(row, col);
+                int state = memory.get(ValueLayout.JAVA_BYTE, stateOffset + cell);
+                if ((state & SPECIES_MASK) != 0 && handleAt(cell) == 0) {
+                    Animal animal = Species.fromCode(state & SPECIES_MASK).create(this, new Location(row, col));
+                    if ((state & SICK_BIT) != 0 && !animal.isSick()) {
+                        animal.becomeSick();
+                    }
+                    restored.add(animal);
+                }
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Write any changes to a file-backed field out to the file.
+     */
+    public void force() {
+        if (memory.isMapped()) {
+            memory.force();
+        }
+    }
+
+    /**
+     * Release the memory behind the field. The field must not be used
+     * afterwards.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * Return the species recorded in a cell, without touching the animal.
+     * @param row The desired row.
+     * @param col The desired column.
+     * @return The species in the cell, or null if it is empty.
+     */
+    public Species getSpeciesAt(int row, int col) {
+        return Species.fromCode(memory.get(ValueLayout.JAVA_BYTE, stateOffset + cell(row, col)) & SPECIES_MASK);
+    }
+
+    /**
+     * Determine whether the animal in a cell is sick, without touching it.
+     * @param row The desired row.
+     * @param col The desired column.
+     * @return true if the cell holds a sick animal.
+     */
+    public boolean isSickAt(int row, int col) {
+        return (memory.get(ValueLayout.JAVA_BYTE, stateOffset + cell(row, col)) & SICK_BIT) != 0;
+    }
+
+    @Override
+    protected void clearCells() {
+        memory.asSlice(HEADER_SIZE).fill((byte) 0);
+        Arrays.fill(entities, null);
+        nextHandle = 1;
+        freeCount = 0;
+    }
+
+    @Override
+    public Animal getObjectAt(int row, int col) {
+        return entities[handleAt(cell(row, col))];
+    }
+
+    @Override
+    public Plant getPlantAt(int row, int col) {
+        return memory.get(ValueLayout.JAVA_BYTE, biomassOffset + cell(row, col)) != 0 ? PLANT : null;
+    }
+
+    @Override
+    protected void setObjectAt(int row, int col, Animal animal) {
+        long cell = cell(row, col);
+        int old = handleAt(cell);
+        if (animal != null && old != 0 && entities[old] == animal) {
+            return; // already here
+        }
+        if (old != 0) {
+            release(old);
+        }
+        int handle = 0;
+        byte state = 0;
+        if (animal != null) {
+            if (animal.handle == 0) {
+                animal.handle = allocate();
+                entities[animal.handle] = animal;
+            }
+            handle = animal.handle;
+            state = stateOf(animal);
+        }
+        memory.set(ValueLayout.JAVA_INT, handleOffset + cell * 4, handle);
+        memory.set(ValueLayout.JAVA_BYTE, stateOffset + cell, state);
+    }
+
+    @Override
+    protected void setPlantAt(int row, int col, Plant plant) {
+        memory.set(ValueLayout.JAVA_BYTE, biomassOffset + cell(row, col), plant == null ? 0 : PLANT_BIOMASS);
+    }
+
+    @Override
+    protected void growPlants(int rowStart, int rowEnd, int colStart, int colEnd) {
+        GridKernels kernels = GridKernels.get();
+        for (int row = rowStart; row < rowEnd; row++) {
+            long cell = cell(row, colStart);
+            kernels.fillPlants(memory, stateOffset + cell, memory, biomassOffset + cell,
+                               colEnd - colStart, PLANT_BIOMASS);
+        }
+    }
+
+    /**
+     * Copy the whole field into snapshot bytes (see FieldSnapshot) straight
+     * from the state and biomass bytes.
+     * @param out Receives one byte per cell; must hold depth * width bytes.
+     */
+    public void packInto(byte[] out) {
+        GridKernels.get().pack(memory, stateOffset, memory, biomassOffset, MemorySegment.ofArray(out), 0, cells);
+    }
+
+    /**
+     * Refresh the state byte of the animal's cell.
+     * @param animal The animal whose state has changed.
+     */
+    @Override
+    public void animalChanged(Animal animal) {
+        Location location = animal.getLocation();
+        if (animal.handle != 0 && location != null) {
+            long cell = cell(location.getRow(), location.getCol());
+            if (handleAt(cell) == animal.handle) {
+                memory.set(ValueLayout.JAVA_BYTE, stateOffset + cell, stateOf(animal));
+            }
+        }
+    }
+
+    private static byte stateOf(Animal animal) {
+        int state = Species.of(animal).getCode();
+        if (animal.isSick()) {
+            state |= SICK_BIT;
+        }
+        return (byte) state;
+    }
+
+    private int handleAt(long cell) {
+        return memory.get(ValueLayout.JAVA_INT, handleOffset + cell * 4);
+    }
+
+    private long cell(int row, int col) {
+        return (long) row * getWidth() + col;
+    }
+
+    /**
+     * Take a free entity handle, growing the table if needed.
+     */
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeHandles[--freeCount];
+        }
+        if (nextHandle == entities.length) {
+            entities = Arrays.copyOf(entities, entities.length * 2);
+        }
+        return nextHandle++;
+    }
+
+    /**
+     * Return an entity handle to the free list once its animal has left
+     * the field.
+     */
+    private void release(int handle) {
+        entities[handle].handle = 0;
+        entities[handle] = null;
+        if (freeCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+        }
+        freeHandles[freeCount++] = handle;
+    }
+
+    /**
+     * Return the number of bytes of memory a field of the given size uses.
+     */
+    private static long sizeFor(long cells) {
+        return ((HEADER_SIZE + 2 * cells + 3) & ~3L) + 4 * cells;
+    }
+}
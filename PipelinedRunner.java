@@ -0,0 +1,257 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Run a simulation with its consumers (statistics, recording, frame
+ * building and so on) working in parallel with it.
+ *
+ * After each step the runner copies the field into a FieldSnapshot and
+ * hands it to every stage. Each stage has its own thread and a bounded
+ * queue, so while the stages work on step N the simulation is already
+ * computing step N+1. When a stage falls behind its queue fills up and
+ * the simulation waits for it. A fixed pool of snapshots is reused, so
+ * the pipeline does not allocate per step.
+ *
+ * Each stage, and the simulation itself, keeps latency figures, so that
+ * the slowest stage of the pipeline can be found.
+ *
+ * A stage whose consumer throws anything is marked failed. From then on
+ * it is given no more snapshots and only releases those already queued
+ * for it, so the simulation never waits on a stage that is not working.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class PipelinedRunner {
+
+    private final Simulator simulator;
+    private final int queueDepth;
+    private final List<Stage> stages = new ArrayList<>();
+    private final StageMetrics simulateMetrics = new StageMetrics("simulate");
+    private final StageMetrics publishMetrics = new StageMetrics("publish");
+    private BlockingQueue<FieldSnapshot> freeSnapshots;
+    private Stage[] receivers; // the stages given the current snapshot
+    private boolean started;
+
+    /**
+     * Create a runner for a simulator.
+     * @param simulator The simulator to run.
+     * @param queueDepth The most snapshots that may wait for any one stage.
+     */
+    public PipelinedRunner(Simulator simulator, int queueDepth) {
+        this.simulator = simulator;
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Add a stage that is given every snapshot. The stage must not keep
+     * the snapshot after it returns.
+     * @param name The stage's name, used in the metrics.
+     * @param consumer What the stage does with each snapshot.
+     */
+    public void addStage(String name, Consumer<FieldSnapshot> consumer) {
+        if (started) {
+            throw new IllegalStateException("Stages must be added before the runner starts");
+        }
+        stages.add(new Stage(name, consumer, queueDepth));
+    }
+
+    /**
+     * Run the simulation for the given number of steps, feeding every
+     * stage. Returns once all stages have dealt with the last step.
+     * @param numSteps The number of steps to run.
+     * @throws InterruptedException If interrupted while waiting for a stage.
+     */
+    public void run(int numSteps) throws InterruptedException {
+        start();
+        Field field = simulator.getField();
+        for (int i = 0; i < numSteps; i++) {
+            long begin = System.nanoTime();
+            simulator.simulateOneStep();
+            long simulated = System.nanoTime();
+            simulateMetrics.record(0, simulated - begin);
+
+            FieldSnapshot snapshot = freeSnapshots.take();
+            long waited = System.nanoTime() - simulated;
+            snapshot.capture(field, simulator.getStep());
+            int live = 0;
+            for (Stage stage : stages) {
+                if (stage.failure == null) {
+                    receivers[live++] = stage;
+                }
+            }
+            snapshot.publish(live, () -> freeSnapshots.add(snapshot));
+            for (int s = 0; s < live; s++) {
+                receivers[s].queue.put(snapshot);
+            }
+            publishMetrics.record(waited, System.nanoTime() - simulated - waited);
+        }
+        // Every snapshot comes back to the pool once all stages are done with it.
+        List<FieldSnapshot> drained = new ArrayList<>();
+        for (int i = 0; i < poolSize(); i++) {
+            drained.add(freeSnapshots.take());
+        }
+        freeSnapshots.addAll(drained);
+    }
+
+    /**
+     * Stop the stage threads. The runner cannot be used afterwards.
+     */
+    public void shutdown() {
+        for (Stage stage : stages) {
+            stage.thread.interrupt();
+        }
+    }
+
+    /**
+     * Return the latency figures of the simulation, the snapshot
+     * publication and every stage, one per line.
+     * @return The metrics report.
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(simulateMetrics).append('\n');
+        report.append(publishMetrics).append('\n');
+        for (Stage stage : stages) {
+            report.append(stage.metrics);
+            if (stage.failure != null) {
+                report.append(" FAILED: ").append(stage.failure);
+            }
+            report.append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * @param name The name of a stage.
+     * @return What made the stage fail, or null if it is working or there
+     *         is no such stage.
+     */
+    public Throwable getFailure(String name) {
+        for (Stage stage : stages) {
+            if (stage.metrics.getName().equals(name)) {
+                return stage.failure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The metrics of the named stage ("simulate" and "publish" for
+     *         the simulation thread), or null if there is no such stage.
+     */
+    public StageMetrics getMetrics(String name) {
+        if (name.equals(simulateMetrics.getName())) {
+            return simulateMetrics;
+        }
+        if (name.equals(publishMetrics.getName())) {
+            return publishMetrics;
+        }
+        for (Stage stage : stages) {
+            if (stage.metrics.getName().equals(name)) {
+                return stage.metrics;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Run a simulation through a pipeline that counts the population and
+     * builds frames, and print the latency of every stage.
+     * @param args depth, width and number of steps.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int depth = Integer.parseInt(args[0]);
+        int width = Integer.parseInt(args[1]);
+        int steps = Integer.parseInt(args[2]);
+
+        PipelinedRunner runner = new PipelinedRunner(new Simulator(depth, width), 4);
+        FieldStats stats = new FieldStats();
+        FrameBuilder frames = new FrameBuilder(depth, width);
+        runner.addStage("stats", snapshot -> stats.countSnapshot(snapshot));
+        runner.addStage("frames", snapshot -> frames.build(snapshot));
+        runner.run(steps);
+        runner.shutdown();
+        System.out.println(stats.getPopulationDetails(null));
+        System.out.print(runner.getReport());
+    }
+
+    /**
+     * Create the snapshot pool and start the stage threads, the first
+     * time the runner is used.
+     */
+    private void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        Field field = simulator.getField();
+        freeSnapshots = new ArrayBlockingQueue<>(poolSize());
+        for (int i = 0; i < poolSize(); i++) {
+            freeSnapshots.add(new FieldSnapshot(field.getDepth(), field.getWidth()));
+        }
+        receivers = new Stage[stages.size()];
+        for (Stage stage : stages) {
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * Enough snapshots for every queue to be full while the simulation
+     * fills one more and each stage works on one.
+     */
+    private int poolSize() {
+        return queueDepth + 2;
+    }
+
+    /**
+     * One consumer of snapshots, with its queue and thread.
+     */
+    private static class Stage implements Runnable {
+        private final Consumer<FieldSnapshot> consumer;
+        private final BlockingQueue<FieldSnapshot> queue;
+        private final StageMetrics metrics;
+        private final Thread thread;
+        private volatile Throwable failure; // null while the stage works
+
+        Stage(String name, Consumer<FieldSnapshot> consumer, int queueDepth) {
+            this.consumer = consumer;
+            queue = new ArrayBlockingQueue<>(queueDepth);
+            metrics = new StageMetrics(name);
+            thread = new Thread(this, "stage-" + name);
+            thread.setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    FieldSnapshot snapshot = queue.take();
+                    if (failure != null) {
+                        snapshot.release(); // queued before the stage failed
+                        continue;
+                    }
+                    long begin = System.nanoTime();
+                    try {
+                        consumer.accept(snapshot);
+                    }
+                    catch (Throwable t) {
+                        // A failing consumer must not stall the pipeline.
+                        failure = t;
+                        t.printStackTrace();
+                    }
+                    finally {
+                        metrics.record(begin - snapshot.getPublishTime(), System.nanoTime() - begin);
+                        snapshot.release();
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                // shut down
+            }
+        }
+    }
+}
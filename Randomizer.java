@@ -35,8 +35,18 @@ public class Randomizer {
      * a shared Random generator.
      */
     public static void reset() {
+        reset(SEED);
+    }
+
+    /**
+     * Reset the randomization to start again from the given seed.
+     * This will have no effect if randomization is not through
+     * a shared Random generator.
+     * @param seed The seed to start from.
+     */
+    public static void reset(long seed) {
         if (useShared) {
-            rand.setSeed(SEED);
+            rand.setSeed(seed);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,229 @@
+import java.util.Arrays;
+
+/**
+ * Counts of animals, infected animals and plants in any rectangle of a
+ * field, answered in O(log depth * log width) time.
+ *
+ * The index holds one two-dimensional Fenwick (binary indexed) tree per
+ * layer: all animals, each species, infected animals and plants. The field
+ * keeps it up to date as cells change, so a query never has to look at
+ * the cells themselves. It costs about 33 bytes per cell, so it is only
+ * created when asked for with Field.enableRangeIndex().
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class RangeIndex {
+
+    // Layers 1 to 5 are the species, by species code.
+    public static final int ANIMALS = 0;
+    public static final int INFECTED = 6;
+    public static final int PLANTS = 7;
+    public static final int LAYERS = 8;
+
+    private final int depth, width;
+    // The state of every cell, encoded as in FieldSnapshot.
+    private final byte[] cells;
+    // Fenwick trees, 1-based, (depth + 1) x (width + 1) each.
+    private final int[][] trees = new int[LAYERS][];
+
+    /**
+     * Create an empty index for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    RangeIndex(int depth, int width) {
+        if ((long) (depth + 1) * (width + 1) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Field too large for a range index");
+        }
+        this.depth = depth;
+        this.width = width;
+        cells = new byte[depth * width];
+        for (int layer = 0; layer < LAYERS; layer++) {
+            trees[layer] = new int[(depth + 1) * (width + 1)];
+        }
+    }
+
+    /**
+     * Empty the index, as when the field is cleared.
+     */
+    void reset() {
+        Arrays.fill(cells, (byte) 0);
+        for (int[] tree : trees) {
+            Arrays.fill(tree, 0);
+        }
+    }
+
+    /**
+     * Load the whole contents of a field in linear time.
+     * @param field The field to index; must be this index's size.
+     */
+    void rebuild(Field field) {
+        reset();
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                byte state = FieldSnapshot.encode(field.getObjectAt(row, col),
+                                                  field.getPlantAt(row, col) != null);
+                cells[row * width + col] = state;
+                for (int layer = 0; layer < LAYERS; layer++) {
+                    if (inLayer(state, layer)) {
+                        trees[layer][(row + 1) * (width + 1) + col + 1] = 1;
+                    }
+                }
+            }
+        }
+        // Turn point values into Fenwick sums one dimension at a time.
+        for (int[] tree : trees) {
+            for (int r = 1; r <= depth; r++) {
+                int base = r * (width + 1);
+                for (int c = 1; c <= width; c++) {
+                    int parent = c + (c & -c);
+                    if (parent <= width) {
+                        tree[base + parent] += tree[base + c];
+                    }
+                }
+            }
+            for (int r = 1; r <= depth; r++) {
+                int parent = r + (r & -r);
+                if (parent <= depth) {
+                    for (int c = 1; c <= width; c++) {
+                        tree[parent * (width + 1) + c] += tree[r * (width + 1) + c];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the new state of a cell.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param state The cell's state, encoded as in FieldSnapshot.
+     */
+    void update(int row, int col, byte state) {
+        int index = row * width + col;
+        byte old = cells[index];
+        if (old == state) {
+            return;
+        }
+        cells[index] = state;
+        for (int layer = 0; layer < LAYERS; layer++) {
+            boolean was = inLayer(old, layer);
+            boolean is = inLayer(state, layer);
+            if (was != is) {
+                add(trees[layer], row, col, is ? 1 : -1);
+            }
+        }
+    }
+
+    /**
+     * Return whether a cell in the given state counts towards a layer.
+     */
+    private static boolean inLayer(byte state, int layer) {
+        switch (layer) {
+            case ANIMALS:
+                return (state & FieldSnapshot.SPECIES_MASK) != 0;
+            case INFECTED:
+                return (state & FieldSnapshot.SICK_FLAG) != 0;
+            case PLANTS:
+                return (state & FieldSnapshot.PLANT_FLAG) != 0;
+            default:
+                return (state & FieldSnapshot.SPECIES_MASK) == layer;
+        }
+    }
+
+    private void add(int[] tree, int row, int col, int delta) {
+        for (int r = row + 1; r <= depth; r += r & -r) {
+            int base = r * (width + 1);
+            for (int c = col + 1; c <= width; c += c & -c) {
+                tree[base + c] += delta;
+            }
+        }
+    }
+
+    /**
+     * The sum of a layer over rows [0, row) and columns [0, col).
+     */
+    private int prefix(int[] tree, int row, int col) {
+        int sum = 0;
+        for (int r = row; r > 0; r -= r & -r) {
+            int base = r * (width + 1);
+            for (int c = col; c > 0; c -= c & -c) {
+                sum += tree[base + c];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Count the cells of a layer in a rectangle. The rectangle is clipped
+     * to the field.
+     * @param layer ANIMALS, a species code, INFECTED or PLANTS.
+     * @param rowStart The first row, inclusive.
+     * @param colStart The first column, inclusive.
+     * @param rowEnd The last row, exclusive.
+     * @param colEnd The last column, exclusive.
+     * @return The number of cells in the rectangle that count towards the
+     *         layer.
+     */
+    public int count(int layer, int rowStart, int colStart, int rowEnd, int colEnd) {
+        rowStart = Math.max(0, rowStart);
+        colStart = Math.max(0, colStart);
+        rowEnd = Math.min(depth, rowEnd);
+        colEnd = Math.min(width, colEnd);
+        if (rowStart >= rowEnd || colStart >= colEnd) {
+            return 0;
+        }
+        int[] tree = trees[layer];
+        return prefix(tree, rowEnd, colEnd) - prefix(tree, rowStart, colEnd)
+               - prefix(tree, rowEnd, colStart) + prefix(tree, rowStart, colStart);
+    }
+
+    /**
+     * Count the animals of one species in a rectangle.
+     * @param species The species.
+     * @param rowStart The first row, inclusive.
+     * @param colStart The first column, inclusive.
+     * @param rowEnd The last row, exclusive.
+     * @param colEnd The last column, exclusive.
+     * @return The number of animals of the species in the rectangle.
+     */
+    public int count(Species species, int rowStart, int colStart, int rowEnd, int colEnd) {
+        return count(species.getCode(), rowStart, colStart, rowEnd, colEnd);
+    }
+
+    /**
+     * Count a layer over the whole field.
+     * @param layer ANIMALS, a species code, INFECTED or PLANTS.
+     * @return The number of cells that count towards the layer.
+     */
+    public int total(int layer) {
+        return prefix(trees[layer], depth, width);
+    }
+
+    /**
+     * Return a coarse density map of a layer: the field is cut into square
+     * bins and each entry is the fraction of a bin's cells that count
+     * towards the layer.
+     * @param layer ANIMALS, a species code, INFECTED or PLANTS.
+     * @param binSize The side of a bin, in cells.
+     * @return The densities, indexed [binRow][binCol].
+     */
+    public double[][] heatmap(int layer, int binSize) {
+        int binRows = (depth + binSize - 1) / binSize;
+        int binCols = (width + binSize - 1) / binSize;
+        double[][] density = new double[binRows][binCols];
+        for (int br = 0; br < binRows; br++) {
+            int rowStart = br * binSize;
+            int rowEnd = Math.min(depth, rowStart + binSize);
+            for (int bc = 0; bc < binCols; bc++) {
+                int colStart = bc * binSize;
+                int colEnd = Math.min(width, colStart + binSize);
+                int cellsInBin = (rowEnd - rowStart) * (colEnd - colStart);
+                density[br][bc] = (double) count(layer, rowStart, colStart, rowEnd, colEnd) / cellsInBin;
+            }
+        }
+        return density;
+    }
+}
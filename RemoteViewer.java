@@ -0,0 +1,136 @@
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Label;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A window showing a simulation that runs somewhere else, streamed by a
+ * FrameServer. Start it with the host and port of the server as
+ * parameters (localhost 7070 if none are given).
+ *
+ * A background thread reads the stream and colours each frame into a
+ * pixel buffer with the palette of FrameBuilder. The window is redrawn
+ * from the buffer at most once per JavaFX pulse; frames that arrive
+ * faster than that are simply overwritten.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class RemoteViewer extends Application {
+
+    public static final int WIN_WIDTH = 800;
+    public static final int WIN_HEIGHT = 800;
+
+    private Canvas canvas;
+    private Label infoLabel;
+    private FrameStreamClient client;
+    private final AtomicBoolean drawPending = new AtomicBoolean();
+
+    // Written by the reader thread, read on the JavaFX thread; guarded by 'this'.
+    private int[] pixels = new int[0];
+    private int depth, width;
+    private String details = "";
+
+    private WritableImage image;
+
+    @Override
+    public void start(Stage stage) throws IOException {
+        List<String> args = getParameters().getRaw();
+        String host = args.size() > 0 ? args.get(0) : "localhost";
+        int port = args.size() > 1 ? Integer.parseInt(args.get(1)) : 7070;
+
+        canvas = new Canvas(WIN_WIDTH - 50, WIN_HEIGHT - 50);
+        infoLabel = new Label("Connecting to " + host + ":" + port);
+        BorderPane pane = new BorderPane();
+        pane.setTop(infoLabel);
+        pane.setCenter(canvas);
+        Group root = new Group();
+        root.getChildren().add(pane);
+        stage.setScene(new Scene(root, WIN_WIDTH, WIN_HEIGHT));
+        stage.setTitle("Predator/Prey Simulation - " + host + ":" + port);
+        stage.show();
+
+        client = new FrameStreamClient(host, port);
+        Thread reader = new Thread(this::read, "frame-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public void stop() throws IOException {
+        client.close();
+    }
+
+    /**
+     * Read frames until the stream ends, handing each to the JavaFX thread.
+     */
+    private void read() {
+        String end = "Stream ended";
+        try {
+            while (client.readFrame()) {
+                if (client.getStep() < 0) {
+                    continue;
+                }
+                synchronized (this) {
+                    byte[] cells = client.getCells();
+                    if (pixels.length != cells.length) {
+                        pixels = new int[cells.length];
+                    }
+                    for (int i = 0; i < cells.length; i++) {
+                        pixels[i] = FrameBuilder.colorOf(cells[i]);
+                    }
+                    depth = client.getDepth();
+                    width = client.getWidth();
+                    details = client.getDetails();
+                }
+                if (!drawPending.getAndSet(true)) {
+                    Platform.runLater(this::draw);
+                }
+            }
+        }
+        catch (IOException e) {
+            end = "Stream broken: " + e.getMessage();
+        }
+        String message = end;
+        Platform.runLater(() -> infoLabel.setText(message));
+    }
+
+    /**
+     * Draw the latest frame, scaled to fit the canvas.
+     */
+    private void draw() {
+        drawPending.set(false);
+        synchronized (this) {
+            if (image == null || (int) image.getWidth() != width || (int) image.getHeight() != depth) {
+                image = new WritableImage(width, depth);
+            }
+            image.getPixelWriter().setPixels(0, 0, width, depth, PixelFormat.getIntArgbInstance(),
+                                             pixels, 0, width);
+            infoLabel.setText(details);
+        }
+        double scale = Math.min(canvas.getWidth() / width, canvas.getHeight() / depth);
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setImageSmoothing(false);
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.drawImage(image, 0, 0, width * scale, depth * scale);
+    }
+
+    /**
+     * Launch the viewer.
+     * @param args host and port of the frame server.
+     */
+    public static void main(String[] args) {
+        launch(args);
+    }
+}
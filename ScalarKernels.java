@@ -0,0 +1,65 @@
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * The plain-loop implementation of the grid kernels, used when the Vector
+ * API is not available.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class ScalarKernels extends GridKernels {
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public void histogram(MemorySegment cells, long offset, long count, long[] population, long[] infected) {
+        for (long i = 0; i < count; i++) {
+            int cell = cells.get(ValueLayout.JAVA_BYTE, offset + i);
+            int code = cell & FieldSnapshot.SPECIES_MASK;
+            population[code]++;
+            if ((cell & FieldSnapshot.SICK_FLAG) != 0) {
+                infected[code]++;
+            }
+        }
+    }
+
+    @Override
+    public long countInfected(MemorySegment cells, long offset, long count) {
+        long infected = 0;
+        for (long i = 0; i < count; i++) {
+            infected += (cells.get(ValueLayout.JAVA_BYTE, offset + i) >> 3) & 1;
+        }
+        return infected;
+    }
+
+    @Override
+    public long fillPlants(MemorySegment state, long stateOffset,
+                           MemorySegment biomass, long biomassOffset, long count, byte plant) {
+        long planted = 0;
+        for (long i = 0; i < count; i++) {
+            if (state.get(ValueLayout.JAVA_BYTE, stateOffset + i) == 0
+                    && biomass.get(ValueLayout.JAVA_BYTE, biomassOffset + i) == 0) {
+                biomass.set(ValueLayout.JAVA_BYTE, biomassOffset + i, plant);
+                planted++;
+            }
+        }
+        return planted;
+    }
+
+    @Override
+    public void pack(MemorySegment state, long stateOffset, MemorySegment biomass, long biomassOffset,
+                     MemorySegment out, long outOffset, long count) {
+        for (long i = 0; i < count; i++) {
+            int cell = state.get(ValueLayout.JAVA_BYTE, stateOffset + i);
+            if (biomass.get(ValueLayout.JAVA_BYTE, biomassOffset + i) != 0) {
+                cell |= FieldSnapshot.PLANT_FLAG;
+            }
+            out.set(ValueLayout.JAVA_BYTE, outOffset + i, (byte) cell);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Scent layers laid over a field, one per species and one for plants.
+ * Every step each animal and plant leaves scent in its cell, and scent
+ * spreads to neighbouring cells and fades. Animals can then follow (or
+ * flee) the scent of animals well beyond the cells next to them.
+ *
+ * Each layer is a pair of float arrays: the current values, which are
+ * only read during an update, and the next values, which are written; the
+ * two are swapped when the update is done. The update is a five-point
+ * diffusion stencil run over bands of rows in parallel. Its inner loop
+ * runs over whole rows without branches, so the JIT can vectorise it.
+ *
+ * Scent costs 48 bytes per cell, so it is only kept when asked for with
+ * Field.enableScent().
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class ScentField {
+
+    // Layers 1 to 5 are the species, by species code.
+    public static final int PLANTS = 0;
+    public static final int LAYERS = 6;
+
+    // Share of the difference with the neighbours that flows each step;
+    // must be at most 0.25 for the stencil to be stable.
+    private static final float DIFFUSION = 0.2f;
+    // Share of the scent that is left after each step.
+    private static final float DECAY = 0.9f;
+    private static final float ANIMAL_SCENT = 1.0f;
+    private static final float PLANT_SCENT = 0.1f;
+    private static final int BAND_ROWS = 64;
+
+    private final int depth, width;
+    private float[][] current = new float[LAYERS][];
+    private float[][] next = new float[LAYERS][];
+
+    /**
+     * Create scent layers, without any scent, for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    ScentField(int depth, int width) {
+        if ((long) depth * width > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Field too large for scent layers");
+        }
+        this.depth = depth;
+        this.width = width;
+        for (int layer = 0; layer < LAYERS; layer++) {
+            current[layer] = new float[depth * width];
+            next[layer] = new float[depth * width];
+        }
+    }
+
+    /**
+     * Remove all scent.
+     */
+    public void clear() {
+        for (int layer = 0; layer < LAYERS; layer++) {
+            Arrays.fill(current[layer], 0);
+            Arrays.fill(next[layer], 0);
+        }
+    }
+
+    /**
+     * Spread and fade the scent by one step, and add the scent left by the
+     * animals and plants now in the field.
+     * @param field The field the layers belong to.
+     */
+    public void update(Field field) {
+        boolean wrap = field.isToroidal();
+        int bands = (depth + BAND_ROWS - 1) / BAND_ROWS;
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            int rowStart = band * BAND_ROWS;
+            int rowEnd = Math.min(depth, rowStart + BAND_ROWS);
+            for (int layer = 0; layer < LAYERS; layer++) {
+                for (int row = rowStart; row < rowEnd; row++) {
+                    diffuseRow(current[layer], next[layer], row, wrap);
+                }
+            }
+            for (int row = rowStart; row < rowEnd; row++) {
+                deposit(field, row);
+            }
+        });
+        float[][] swap = current;
+        current = next;
+        next = swap;
+    }
+
+    /**
+     * Compute one row of a layer's next values from its current values.
+     * On a toroidal field the edges wrap around; otherwise cells on the
+     * edge treat the missing neighbour as having their own value, so no
+     * scent flows out of the field.
+     */
+    private void diffuseRow(float[] from, float[] to, int row, boolean wrap) {
+        int base = row * width;
+        int up = (row > 0 ? row - 1 : (wrap ? depth - 1 : row)) * width;
+        int down = (row < depth - 1 ? row + 1 : (wrap ? 0 : row)) * width;
+        int last = width - 1;
+        if (width == 1) {
+            float here = from[base];
+            to[base] = DECAY * (here + DIFFUSION * (from[up] + from[down] - 2 * here));
+            return;
+        }
+        float here = from[base];
+        float left = wrap ? from[base + last] : here;
+        to[base] = DECAY * (here + DIFFUSION * (from[up] + from[down] + left + from[base + 1] - 4 * here));
+        for (int col = 1; col < last; col++) {
+            here = from[base + col];
+            float around = from[up + col] + from[down + col] + from[base + col - 1] + from[base + col + 1];
+            to[base + col] = DECAY * (here + DIFFUSION * (around - 4 * here));
+        }
+        here = from[base + last];
+        float right = wrap ? from[base] : here;
+        to[base + last] = DECAY * (here + DIFFUSION * (from[up + last] + from[down + last]
+                                                       + from[base + last - 1] + right - 4 * here));
+    }
+
+    /**
+     * Add the scent of the animals and plants in one row to the next values.
+     */
+    private void deposit(Field field, int row) {
+        int base = row * width;
+        float[] plants = next[PLANTS];
+        for (int col = 0; col < width; col++) {
+            Animal animal = field.getObjectAt(row, col);
+            if (animal != null && animal.isAlive()) {
+                next[Species.of(animal).getCode()][base + col] += ANIMAL_SCENT;
+            }
+            else if (field.getPlantAt(row, col) != null) {
+                plants[base + col] += PLANT_SCENT;
+            }
+        }
+    }
+
+    /**
+     * Return the scent of one layer in a cell.
+     * @param layer PLANTS or a species code.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return The strength of the scent.
+     */
+    public float get(int layer, int row, int col) {
+        return current[layer][row * width + col];
+    }
+
+    /**
+     * Return the scent of one species in a cell.
+     * @param species The species.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return The strength of the scent.
+     */
+    public float get(Species species, int row, int col) {
+        return get(species.getCode(), row, col);
+    }
+
+    /**
+     * Return the combined scent of all predators, or of all prey, in a cell.
+     * @param predators true for the predators, false for the prey.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return The strength of the scent.
+     */
+    public float getScentOf(boolean predators, int row, int col) {
+        int index = row * width + col;
+        float sum = 0;
+        for (Species species : Species.values()) {
+            if (species.isPredator() == predators) {
+                sum += current[species.getCode()][index];
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run a simulation split across several worker processes on this machine.
+ * The field is cut into horizontal strips, one per ShardWorker, and the
+ * workers talk to their neighbours and to this coordinator over localhost
+ * sockets. Each step the coordinator tells every worker to step, then adds
+ * up the population counts they report into a FieldStats.
+ *
+ * The workers step with an IntentEngine, which draws every random number
+ * from the seed, the step and cells of the whole world, and populate their
+ * strips with Simulator.populateByCell(). A run is therefore the same, cell
+ * for cell, whatever the number of workers, and the same as a single
+ * Simulator set up by reference() from the same seed. Every strip but a
+ * lone one must be at least two rows deep.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class ShardCoordinator implements AutoCloseable {
+
+    private final List<Process> processes = new ArrayList<>();
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+    private final Socket[] sockets;
+    private final FieldStats stats = new FieldStats();
+    private int step;
+
+    /**
+     * Start the worker processes and wait until all of them have populated
+     * their strips and connected to their neighbours.
+     * @param depth Depth of the whole field.
+     * @param width Width of the whole field.
+     * @param workers Number of worker processes (strips).
+     * @param seed Random seed of the run.
+     * @throws IOException If the workers cannot be started or connected.
+     */
+    public ShardCoordinator(int depth, int width, int workers, long seed) throws IOException {
+        int most = Math.max(1, depth / 2);
+        if (workers < 1 || workers > most) {
+            throw new IllegalArgumentException("Need between 1 and " + most + " workers");
+        }
+        in = new DataInputStream[workers];
+        out = new DataOutputStream[workers];
+        sockets = new Socket[workers];
+
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+        try (ServerSocket server = new ServerSocket(0, workers, localhost)) {
+            for (int index = 0; index < workers; index++) {
+                processes.add(startWorker(server.getLocalPort(), index, workers, depth, width, seed));
+            }
+            int[] peerPorts = new int[workers];
+            for (int i = 0; i < workers; i++) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                int index = input.readInt();
+                peerPorts[index] = input.readInt();
+                sockets[index] = socket;
+                in[index] = input;
+                out[index] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+            for (int index = 0; index < workers; index++) {
+                out[index].writeInt(index > 0 ? peerPorts[index - 1] : 0);
+                out[index].flush();
+            }
+            for (int index = 0; index < workers; index++) {
+                in[index].readInt(); // ready
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Run one step on every worker and gather the counts.
+     * @return The population and infected counts of the whole field.
+     * @throws IOException If a worker fails.
+     */
+    public FieldStats simulateOneStep() throws IOException {
+        step++;
+        for (DataOutputStream output : out) {
+            output.writeInt(ShardWorker.CMD_STEP);
+            output.flush();
+        }
+        stats.reset();
+        for (DataInputStream input : in) {
+            for (Species species : Species.values()) {
+                stats.incrementCount(species.getAnimalClass(), input.readInt());
+                stats.incrementInfectedCount(species.getAnimalClass(), input.readInt());
+            }
+        }
+        stats.countFinished();
+        return stats;
+    }
+
+    /**
+     * Ask every worker for the StateDigest of its strip.
+     * @return The digest of the whole field.
+     * @throws IOException If a worker fails.
+     */
+    public long digest() throws IOException {
+        for (DataOutputStream output : out) {
+            output.writeInt(ShardWorker.CMD_DIGEST);
+            output.flush();
+        }
+        long digest = 0;
+        for (DataInputStream input : in) {
+            digest ^= input.readLong();
+        }
+        return digest;
+    }
+
+    /**
+     * Create the single-process simulation that a sharded run of the same
+     * size and seed reproduces.
+     * @param depth Depth of the field.
+     * @param width Width of the field.
+     * @param seed Random seed of the run.
+     * @return The simulator, populated and ready to step.
+     */
+    public static Simulator reference(int depth, int width, long seed) {
+        Field field = new Field(depth, width);
+        Simulator simulator = new Simulator(field, new ArrayList<>());
+        field.clear();
+        simulator.populateByCell(seed, 0, depth, 0);
+        field.growPlants();
+        simulator.setIntentEngine(new IntentEngine(seed));
+        return simulator;
+    }
+
+    /**
+     * @return The number of steps run so far.
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * Stop the workers and wait for them to exit.
+     */
+    @Override
+    public void close() {
+        for (int index = 0; index < sockets.length; index++) {
+            try {
+                if (out[index] != null) {
+                    out[index].writeInt(ShardWorker.CMD_STOP);
+                    out[index].flush();
+                }
+                if (sockets[index] != null) {
+                    sockets[index].close();
+                }
+            }
+            catch (IOException e) {
+                // the worker has gone already
+            }
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+            catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Launch one worker JVM with the same class path and JVM options as
+     * this one.
+     */
+    private static Process startWorker(int port, int index, int workers, int depth, int width, long seed)
+        throws IOException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("ShardWorker");
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(index));
+        command.add(String.valueOf(workers));
+        command.add(String.valueOf(depth));
+        command.add(String.valueOf(width));
+        command.add(String.valueOf(seed));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Run a sharded simulation and print the counts after every step.
+     * With "check" it also runs the single-process reference alongside,
+     * compares the digests of the two fields after every step, and exits
+     * with status 1 at the first difference.
+     * @param args depth, width, number of workers, number of steps,
+     *             optionally the random seed, and optionally "check".
+     */
+    public static void main(String[] args) throws IOException {
+        int depth = Integer.parseInt(args[0]);
+        int width = Integer.parseInt(args[1]);
+        int workers = Integer.parseInt(args[2]);
+        int steps = Integer.parseInt(args[3]);
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1111;
+        boolean check = args.length > 5 && args[5].equals("check");
+
+        Simulator reference = null;
+        if (check) {
+            reference = reference(depth, width, seed);
+        }
+        int status = 0;
+        try (ShardCoordinator coordinator = new ShardCoordinator(depth, width, workers, seed)) {
+            for (int i = 0; i < steps; i++) {
+                String counts = coordinator.simulateOneStep().getPopulationDetails(null);
+                System.out.println("Step " + coordinator.getStep() + ": " + counts);
+                if (reference != null) {
+                    reference.simulateOneStep();
+                    long expected = StateDigest.of(reference.getField());
+                    long actual = coordinator.digest();
+                    if (actual != expected) {
+                        System.out.printf("  differs from single process: digest %016x, expected %016x%n",
+                                          actual, expected);
+                        status = 1;
+                        break;
+                    }
+                }
+            }
+            if (reference != null && status == 0) {
+                System.out.println("Same as single process for all " + steps + " steps");
+            }
+        }
+        System.exit(status);
+    }
+}
@@ -0,0 +1,705 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * One worker process of a sharded simulation. The worker owns a horizontal
+ * strip of the world, at least two rows deep, and simulates the animals
+ * in it with an IntentEngine.
+ *
+ * Its field holds the strip plus a one-cell halo row for each neighbouring
+ * strip. At the start of a step the worker and its neighbours swap their
+ * boundary rows, and the halo is filled with "ghost" animals and plants
+ * so that animals near the boundary can see across it. Each ghost is a
+ * copy of its animal in exactly its state: genes, age, food level and
+ * sickness.
+ *
+ * Every animal then plans its step, and the plans of the two rows next to
+ * each neighbour are swapped with it too. Plans are carried out in the
+ * engine's priority order, but only where that order matters: an animal
+ * goes ahead as soon as every plan before it that it conflicts with (the
+ * same target cell, or the same prey, or one eating the other) has been
+ * carried out, here or by the neighbour. Plans that do not conflict give
+ * the same result in any order, so this is the same step the engine takes
+ * over the whole world. The neighbours go round in turns, swapping what
+ * came of their plans near the boundary (who ate whom, and where each
+ * animal and its young ended up) until neither has any plans left.
+ *
+ * Animals that end the step in a halo row now belong to the neighbour,
+ * which has made its own copy of them. The halo is swapped once more
+ * for disease to spread across the boundary, and the worker reports its
+ * population counts to the coordinator.
+ *
+ * Every random choice is drawn by the engine from the seed, the step and
+ * cells of the whole world, so a run with any number of workers is the
+ * same, cell for cell, as one on a single field (see ShardCoordinator).
+ *
+ * Workers are started by ShardCoordinator. They are not meant to be run
+ * by hand.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class ShardWorker {
+
+    // Commands from the coordinator.
+    static final int CMD_STEP = 1;
+    static final int CMD_STOP = 2;
+    static final int CMD_DIGEST = 3;
+
+    // Rows next to a neighbour whose plans can conflict with the neighbour's.
+    private static final int INTERFACE_ROWS = 2;
+
+    private final int rows, width, localDepth;
+    private final int top; // local row of the first owned row
+    private final int rowOffset; // world row of local row 0
+    private final Field field;
+    private final Simulator simulator;
+    private final IntentEngine engine;
+    private final DataInputStream fromCoordinator;
+    private final DataOutputStream toCoordinator;
+    private Link upper, lower;
+    private int step;
+
+    // This step's plans, own and the neighbours', by local cell from the
+    // row above the field to the row below it.
+    private final Plan[] plans;
+    private final List<Plan> placed = new ArrayList<>();
+    // Own plans not yet carried out, in priority order.
+    private final List<Plan> pending = new ArrayList<>();
+    private final List<Animal> newAnimals = new ArrayList<>();
+    private final List<Animal> arrivals = new ArrayList<>();
+
+    /**
+     * Set up a worker for strip 'index' of 'workers', and populate it.
+     */
+    private ShardWorker(Socket coordinator, int index, int workers, int depth, int width, long seed)
+        throws IOException
+    {
+        int firstRow = (int) ((long) depth * index / workers);
+        this.rows = (int) ((long) depth * (index + 1) / workers) - firstRow;
+        this.width = width;
+        this.top = index > 0 ? 1 : 0;
+        this.rowOffset = firstRow - top;
+        localDepth = rows + top + (index < workers - 1 ? 1 : 0);
+        plans = new Plan[(localDepth + 2) * width];
+
+        fromCoordinator = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+        toCoordinator = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+
+        field = new Field(localDepth, width);
+        simulator = new Simulator(field, new ArrayList<>());
+        field.clear();
+        simulator.populateByCell(seed, top, top + rows, rowOffset);
+        field.growPlants();
+        engine = new IntentEngine(seed, rowOffset);
+        simulator.setIntentEngine(engine);
+        if (top > 0) {
+            upper = new Link(top - 1, top, top, false);
+        }
+        if (top + rows < localDepth) {
+            lower = new Link(top + rows, top + rows - 1, top + rows - INTERFACE_ROWS, true);
+        }
+    }
+
+    /**
+     * Start a worker.
+     * @param args Coordinator port, strip index, number of strips, field
+     *             depth, field width and random seed.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int index = Integer.parseInt(args[1]);
+        int workers = Integer.parseInt(args[2]);
+        int depth = Integer.parseInt(args[3]);
+        int width = Integer.parseInt(args[4]);
+        long seed = Long.parseLong(args[5]);
+
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+        try (Socket coordinator = new Socket(localhost, port);
+             ServerSocket peerServer = new ServerSocket(0, 1, localhost)) {
+            coordinator.setTcpNoDelay(true);
+            ShardWorker worker = new ShardWorker(coordinator, index, workers, depth, width, seed);
+
+            // Say who we are, learn where the upper neighbour listens, and
+            // join up with both neighbours.
+            worker.toCoordinator.writeInt(index);
+            worker.toCoordinator.writeInt(peerServer.getLocalPort());
+            worker.toCoordinator.flush();
+            int upperPort = worker.fromCoordinator.readInt();
+            if (worker.upper != null) {
+                worker.upper.connect(new Socket(localhost, upperPort));
+            }
+            if (worker.lower != null) {
+                worker.lower.connect(peerServer.accept());
+            }
+            worker.toCoordinator.writeInt(0); // ready
+            worker.toCoordinator.flush();
+            worker.run();
+        }
+    }
+
+    /**
+     * Carry out the coordinator's commands until told to stop.
+     */
+    private void run() throws IOException {
+        int command;
+        while ((command = fromCoordinator.readInt()) != CMD_STOP) {
+            if (command == CMD_STEP) {
+                step();
+            }
+            else if (command == CMD_DIGEST) {
+                toCoordinator.writeLong(StateDigest.of(field, top, top + rows, rowOffset));
+                toCoordinator.flush();
+            }
+        }
+        closeLinks();
+    }
+
+    /**
+     * Run one step of the strip, together with the neighbours.
+     */
+    private void step() throws IOException {
+        step++;
+        field.beginStep();
+        // Links are always served upper first, and the upper end of a
+        // link writes first, so the chain of strips cannot deadlock.
+        exchangeHalos();
+        plan();
+        if (upper != null) {
+            upper.exchangePlans();
+        }
+        if (lower != null) {
+            lower.exchangePlans();
+        }
+        resolve();
+        settle();
+        exchangeHalos();
+        simulator.getDiseasePass().spread(step);
+        reportCounts();
+    }
+
+    private void exchangeHalos() throws IOException {
+        if (upper != null) {
+            upper.exchangeHalo();
+        }
+        if (lower != null) {
+            lower.exchangeHalo();
+        }
+    }
+
+    /**
+     * Let every animal of the strip plan its step, in parallel, against
+     * the unchanged field and halo.
+     */
+    private void plan() {
+        List<Animal> animals = simulator.getAnimals();
+        animals.removeIf(animal -> animal == null || !animal.isAlive());
+        Animal[] actors = animals.toArray(new Animal[0]);
+        Plan[] own = new Plan[actors.length];
+        IntStream.range(0, actors.length).parallel()
+                 .forEach(i -> own[i] = new Plan(actors[i], engine.plan(actors[i], field, step)));
+        for (Plan plan : own) {
+            place(plan);
+            pending.add(plan);
+        }
+        Collections.sort(pending);
+    }
+
+    /**
+     * Carry out the plans in rounds. Each round carries out every own plan
+     * that no earlier conflicting plan is waiting for, then swaps the
+     * outcomes near each boundary with the neighbour. A link is done with
+     * once neither end has plans left.
+     */
+    private void resolve() throws IOException {
+        boolean busy = sweep();
+        boolean upperOpen = upper != null;
+        boolean lowerOpen = lower != null;
+        while (busy || upperOpen || lowerOpen) {
+            if (upperOpen) {
+                upperOpen = upper.exchangeOutcomes(busy);
+            }
+            if (lowerOpen) {
+                lowerOpen = lower.exchangeOutcomes(busy);
+            }
+            if (busy) {
+                busy = sweep();
+            }
+        }
+        for (Plan plan : placed) {
+            plans[slot(plan.cell)] = null;
+        }
+        placed.clear();
+    }
+
+    /**
+     * Carry out, in priority order, every own plan that is free to go.
+     * @return true if some plans are still waiting.
+     */
+    private boolean sweep() {
+        int waiting = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            Plan plan = pending.get(i);
+            if (isFree(plan)) {
+                carryOut(plan);
+            }
+            else {
+                pending.set(waiting++, plan);
+            }
+        }
+        pending.subList(waiting, pending.size()).clear();
+        return waiting > 0;
+    }
+
+    /**
+     * @return true if no plan before this one that conflicts with it is
+     *         still waiting. Conflicting plans are at most two cells apart.
+     */
+    private boolean isFree(Plan plan) {
+        int row = localRow(plan.cell);
+        int col = (int) (plan.cell % width);
+        for (int r = Math.max(-1, row - 2); r <= Math.min(localDepth, row + 2); r++) {
+            for (int c = Math.max(0, col - 2); c <= Math.min(width - 1, col + 2); c++) {
+                Plan other = plans[(r + 1) * width + c];
+                if (other != null && other != plan && !other.done
+                        && other.compareTo(plan) < 0 && other.conflictsWith(plan)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void carryOut(Plan plan) {
+        plan.eaten = !plan.animal.isAlive();
+        plan.youngFrom = newAnimals.size();
+        engine.apply(plan.animal, plan.intent, field, newAnimals);
+        plan.youngTo = newAnimals.size();
+        plan.done = true;
+        int row = localRow(plan.cell);
+        if (upper != null && upper.isInterface(row)) {
+            upper.outcomes.add(plan);
+        }
+        if (lower != null && lower.isInterface(row)) {
+            lower.outcomes.add(plan);
+        }
+    }
+
+    /**
+     * Bring the animal list up to date after the plans have been carried
+     * out: drop the dead and those that ended in a halo row, and add the
+     * young and the animals that arrived from the neighbours.
+     */
+    private void settle() {
+        List<Animal> animals = simulator.getAnimals();
+        animals.addAll(newAnimals);
+        newAnimals.clear();
+        animals.removeIf(animal -> {
+            if (!animal.isAlive()) {
+                return true;
+            }
+            Location location = animal.getLocation();
+            if (owns(location.getRow())) {
+                return false;
+            }
+            field.clear(location);
+            field.animalDied(animal); // gone from this strip
+            return true;
+        });
+        animals.addAll(arrivals);
+        arrivals.clear();
+    }
+
+    /**
+     * Send the population and infected counts of the strip's own rows.
+     */
+    private void reportCounts() throws IOException {
+        int[] population = new int[Species.values().length + 1];
+        int[] infected = new int[population.length];
+        for (Animal animal : simulator.getAnimals()) {
+            Location location = animal.getLocation();
+            if (animal.isAlive() && location != null && owns(location.getRow())) {
+                int code = Species.of(animal).getCode();
+                population[code]++;
+                if (animal.isSick()) {
+                    infected[code]++;
+                }
+            }
+        }
+        for (int code = 1; code < population.length; code++) {
+            toCoordinator.writeInt(population[code]);
+            toCoordinator.writeInt(infected[code]);
+        }
+        toCoordinator.flush();
+    }
+
+    private boolean owns(int localRow) {
+        return localRow >= top && localRow < top + rows;
+    }
+
+    private void closeLinks() throws IOException {
+        if (upper != null) {
+            upper.socket.close();
+        }
+        if (lower != null) {
+            lower.socket.close();
+        }
+    }
+
+    /**
+     * @return The local row of a world cell; may lie outside the field.
+     */
+    private int localRow(long cell) {
+        return (int) (cell / width) - rowOffset;
+    }
+
+    /**
+     * @return The location of a world cell in the field, or null if the
+     *         field does not hold it or the cell is -1.
+     */
+    private Location locationOf(long cell) {
+        if (cell < 0) {
+            return null;
+        }
+        int row = localRow(cell);
+        return row >= 0 && row < localDepth ? new Location(row, (int) (cell % width)) : null;
+    }
+
+    private long cellOf(Location location) {
+        return (long) (location.getRow() + rowOffset) * width + location.getCol();
+    }
+
+    private int slot(long cell) {
+        return (localRow(cell) + 1) * width + (int) (cell % width);
+    }
+
+    private void place(Plan plan) {
+        plans[slot(plan.cell)] = plan;
+        placed.add(plan);
+    }
+
+    /**
+     * Write the genes and state of an animal, as read by readAnimal().
+     */
+    private static void writeState(DataOutputStream out, Animal animal) throws IOException {
+        out.writeUTF(animal.getGene());
+        out.writeBoolean(animal.isMale());
+        out.writeInt(animal.age);
+        out.writeInt(animal.getFoodLevel());
+        out.writeInt(animal.getSicknessDuration());
+    }
+
+    /**
+     * Read the genes and state written by writeState() and create a copy
+     * of the animal, without drawing from the random generator.
+     * @return The copy, or null if location is null and the state was
+     *         only skipped.
+     */
+    private Animal readAnimal(DataInputStream in, Species species, Location location) throws IOException {
+        String gene = in.readUTF();
+        boolean male = in.readBoolean();
+        int age = in.readInt();
+        int foodLevel = in.readInt();
+        int sicknessDuration = in.readInt();
+        if (location == null) {
+            return null;
+        }
+        return species.restore(field, location, gene, male, age, foodLevel, sicknessDuration);
+    }
+
+    /**
+     * What an animal plans to do in a step, in the world's cells. Plans
+     * from the neighbours carry only what is needed to find conflicts.
+     */
+    private class Plan implements Comparable<Plan> {
+        final long cell;
+        final long priority;
+        final long[] targets; // cells to be born into or moved to
+        final long prey;      // cell of the prey, or -1
+        final Animal animal;  // null for a neighbour's plan
+        final IntentEngine.Intent intent;
+        boolean done, eaten;
+        int youngFrom, youngTo; // range of newAnimals born of it
+
+        Plan(Animal animal, IntentEngine.Intent intent) {
+            this.animal = animal;
+            this.intent = intent;
+            cell = intent.cell;
+            priority = intent.priority;
+            targets = new long[intent.births.size() + intent.moves.size()];
+            int i = 0;
+            for (Location where : intent.births) {
+                targets[i++] = cellOf(where);
+            }
+            for (Location where : intent.moves) {
+                targets[i++] = cellOf(where);
+            }
+            prey = intent.preyLocation != null ? cellOf(intent.preyLocation) : -1;
+        }
+
+        Plan(long cell, long priority, long[] targets, long prey) {
+            this.cell = cell;
+            this.priority = priority;
+            this.targets = targets;
+            this.prey = prey;
+            animal = null;
+            intent = null;
+        }
+
+        boolean conflictsWith(Plan other) {
+            if (prey >= 0 && (prey == other.cell || prey == other.prey)) {
+                return true;
+            }
+            if (other.prey == cell) {
+                return true;
+            }
+            for (long target : targets) {
+                for (long otherTarget : other.targets) {
+                    if (target == otherTarget) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int compareTo(Plan other) {
+            int order = Long.compare(priority, other.priority);
+            return order != 0 ? order : Long.compare(cell, other.cell);
+        }
+    }
+
+    /**
+     * The connection to one neighbouring strip, with the halo row that
+     * mirrors it, the boundary row it mirrors, and the first of the rows
+     * whose plans it is told about.
+     */
+    private class Link {
+        private final int haloRow, boundaryRow, firstInterfaceRow;
+        private final boolean writeFirst;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        // Own plans next to the neighbour carried out since the last swap.
+        final List<Plan> outcomes = new ArrayList<>();
+
+        Link(int haloRow, int boundaryRow, int firstInterfaceRow, boolean writeFirst) {
+            this.haloRow = haloRow;
+            this.boundaryRow = boundaryRow;
+            this.firstInterfaceRow = firstInterfaceRow;
+            this.writeFirst = writeFirst;
+        }
+
+        void connect(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        boolean isInterface(int localRow) {
+            return localRow >= firstInterfaceRow && localRow < firstInterfaceRow + INTERFACE_ROWS
+                   && owns(localRow);
+        }
+
+        /**
+         * Swap boundary rows with the neighbour and rebuild the halo.
+         */
+        void exchangeHalo() throws IOException {
+            if (writeFirst) {
+                writeBoundary();
+                readHalo();
+            }
+            else {
+                readHalo();
+                writeBoundary();
+            }
+        }
+
+        /**
+         * Send the boundary row: for each cell its FieldSnapshot code, and
+         * the genes and state of its animal, if any.
+         */
+        private void writeBoundary() throws IOException {
+            for (int col = 0; col < width; col++) {
+                Animal animal = field.getObjectAt(boundaryRow, col);
+                out.writeByte(FieldSnapshot.encode(animal, field.getPlantAt(boundaryRow, col) != null));
+                if (animal != null) {
+                    writeState(out, animal);
+                }
+            }
+            out.flush();
+        }
+
+        /**
+         * Replace the halo with copies of the animals in the neighbour's
+         * boundary row, in exactly their state.
+         */
+        private void readHalo() throws IOException {
+            for (int col = 0; col < width; col++) {
+                Location location = new Location(haloRow, col);
+                Animal old = field.getObjectAt(haloRow, col);
+                if (old != null && old.isAlive()) {
+                    old.setDead(); // the previous ghost is gone
+                }
+                field.clear(location);
+                int cell = in.readByte();
+                int code = cell & FieldSnapshot.SPECIES_MASK;
+                if (code != 0) {
+                    readAnimal(in, Species.fromCode(code), location);
+                }
+                if ((cell & FieldSnapshot.PLANT_FLAG) != 0) {
+                    field.place(new Plant(), haloRow, col);
+                }
+            }
+        }
+
+        /**
+         * Swap the plans of the rows next to the boundary with the neighbour.
+         */
+        void exchangePlans() throws IOException {
+            if (writeFirst) {
+                writePlans();
+                readPlans();
+            }
+            else {
+                readPlans();
+                writePlans();
+            }
+        }
+
+        private void writePlans() throws IOException {
+            List<Plan> near = new ArrayList<>();
+            for (Plan plan : pending) {
+                if (isInterface(localRow(plan.cell))) {
+                    near.add(plan);
+                }
+            }
+            out.writeInt(near.size());
+            for (Plan plan : near) {
+                out.writeLong(plan.cell);
+                out.writeLong(plan.priority);
+                out.writeLong(plan.prey);
+                out.writeInt(plan.targets.length);
+                for (long target : plan.targets) {
+                    out.writeLong(target);
+                }
+            }
+            out.flush();
+        }
+
+        private void readPlans() throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long cell = in.readLong();
+                long priority = in.readLong();
+                long prey = in.readLong();
+                long[] targets = new long[in.readInt()];
+                for (int t = 0; t < targets.length; t++) {
+                    targets[t] = in.readLong();
+                }
+                place(new Plan(cell, priority, targets, prey));
+            }
+        }
+
+        /**
+         * Swap what came of the plans next to the boundary since the last
+         * swap, and whether either end still has plans waiting.
+         * @param busy true if this end still has plans waiting.
+         * @return true if either end still has plans waiting.
+         */
+        boolean exchangeOutcomes(boolean busy) throws IOException {
+            boolean otherBusy;
+            if (writeFirst) {
+                writeOutcomes(busy);
+                otherBusy = readOutcomes();
+            }
+            else {
+                otherBusy = readOutcomes();
+                writeOutcomes(busy);
+            }
+            return busy || otherBusy;
+        }
+
+        /**
+         * Send, for each plan carried out: whether the animal had already
+         * been eaten; if not, the cell of the prey it ate and every animal
+         * it leaves behind, itself and its young, with their cells and state.
+         */
+        private void writeOutcomes(boolean busy) throws IOException {
+            out.writeInt(outcomes.size());
+            for (Plan plan : outcomes) {
+                out.writeLong(plan.cell);
+                out.writeBoolean(plan.eaten);
+                if (plan.eaten) {
+                    continue;
+                }
+                Animal animal = plan.animal;
+                Location preyLocation = plan.intent.preyLocation;
+                boolean ate = preyLocation != null && animal.isAlive()
+                              && preyLocation.equals(animal.getLocation());
+                out.writeLong(ate ? plan.prey : -1);
+                List<Animal> left = new ArrayList<>(newAnimals.subList(plan.youngFrom, plan.youngTo));
+                if (animal.isAlive()) {
+                    left.add(0, animal);
+                }
+                out.writeInt(left.size());
+                for (Animal each : left) {
+                    out.writeLong(cellOf(each.getLocation()));
+                    out.writeByte(Species.of(each).getCode());
+                    writeState(out, each);
+                }
+            }
+            outcomes.clear();
+            out.writeBoolean(busy);
+            out.flush();
+        }
+
+        /**
+         * Apply the neighbour's outcomes: its animal's ghost leaves the
+         * halo, its prey dies, and copies of the animals it leaves are made
+         * wherever they landed in this field. Those in owned rows have
+         * moved here.
+         * @return true if the neighbour still has plans waiting.
+         */
+        private boolean readOutcomes() throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long cell = in.readLong();
+                plans[slot(cell)].done = true;
+                if (in.readBoolean()) {
+                    continue; // eaten here before its turn
+                }
+                Location from = locationOf(cell);
+                if (from != null && field.getObjectAt(from) != null) {
+                    field.getObjectAt(from).setDead();
+                }
+                Location prey = locationOf(in.readLong());
+                if (prey != null && field.getObjectAt(prey) != null) {
+                    field.getObjectAt(prey).setDead();
+                }
+                int left = in.readInt();
+                for (int a = 0; a < left; a++) {
+                    Location where = locationOf(in.readLong());
+                    Animal copy = readAnimal(in, Species.fromCode(in.readByte()), where);
+                    if (copy != null && owns(where.getRow())) {
+                        arrivals.add(copy);
+                    }
+                }
+            }
+            return in.readBoolean();
+        }
+    }
+}
@@ -1,7 +1,13 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
 import java.util.Random;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 import javafx.scene.paint.Color; 
 
 /**
@@ -24,6 +30,24 @@ public class Simulator {
     BEAR_CREATION_PROBABILITY+WOLF_CREATION_PROBABILITY+
     WILDBOAR_CREATION_PROBABILITY+DEER_CREATION_PROBABILITY+SQUIRREL_CREATION_PROBABILITY;
     
+    // Species in the order of the creation probabilities above.
+    private static final Species[] CREATED_SPECIES = {
+        Species.BEAR, Species.WOLF, Species.WILD_BOAR, Species.DEER, Species.SQUIRREL
+    };
+    private static final double[] CREATION_PROBABILITIES = {
+        BEAR_CREATION_PROBABILITY, WOLF_CREATION_PROBABILITY, WILDBOAR_CREATION_PROBABILITY,
+        DEER_CREATION_PROBABILITY, SQUIRREL_CREATION_PROBABILITY
+    };
+    // Rows per band of populateBulk(); a multiple of the chunk size of a ChunkedField.
+    private static final int BULK_BAND_ROWS = 64;
+
+    // The phases of a step, in the order they run.
+    public static final int SCENT_PHASE = 0;
+    public static final int ACT_PHASE = 1;
+    public static final int DISEASE_PHASE = 2;
+    public static final int FINISH_PHASE = 3;
+    public static final String[] PHASE_NAMES = { "scent", "act", "disease", "finish" };
+
     //Bear has red squares
     //Wolf has pink squares
     //Wild boar has grey squares
@@ -34,6 +58,19 @@ public class Simulator {
     private List<Animal> animals;
     private Field field;
     private int step;
+    private IntentEngine intentEngine; // null to step with act()
+    private SpeciesScheduler speciesScheduler; // null to act in list order
+    private DiseasePass diseasePass;
+    private LineageStore lineage; // null unless enabled
+    private EventStream events; // null unless enabled
+    private MetricsServer metrics; // null unless enabled
+    private FrameServer frameServer; // null unless enabled
+    private TimeSeriesRecorder recorder; // null unless enabled
+    private long stepBegan; // System.nanoTime() at the start of the step
+    private FlightEvents flightEvents;
+    private AllocationTelemetry allocations; // null unless enabled
+    private int reorderInterval; // 0 to keep the animals in birth order
+    private final MortonOrder mortonOrder = new MortonOrder();
     
     /**
      * Create a simulation field with the given size.
@@ -41,19 +78,79 @@ public class Simulator {
      * @param width Width of the field. Must be greater than zero.
      */
     public Simulator(int depth, int width) {
+        this(new Field(depth, width));
+    }
+
+    /**
+     * Create a simulation on the given field. This lets the simulation run
+     * on other field layouts, such as a ChunkedField for very large worlds.
+     * @param field The field to simulate. Its contents are replaced.
+     */
+    public Simulator(Field field) {
         
         animals = new ArrayList<>();
-        field = new Field(depth, width);
+        this.field = field;
+        diseasePass = new DiseasePass(field);
+        flightEvents = new FlightEvents(diseasePass);
+        field.addListener(flightEvents);
 
         reset();
     }
+
+    /**
+     * Resume a simulation on a field that already holds animals, such as
+     * one opened with OffHeapField.open().
+     * @param field The field to simulate.
+     * @param animals The animals living in the field.
+     */
+    public Simulator(Field field, List<Animal> animals) {
+        this.animals = new ArrayList<>(animals);
+        this.field = field;
+        diseasePass = new DiseasePass(field);
+        diseasePass.track(this.animals);
+        flightEvents = new FlightEvents(diseasePass);
+        field.addListener(flightEvents);
+    }
     
     /**
      * Run the simulation from its current state for a single step.
      * Iterate over the whole field updating the state of each animal
      */
     public void simulateOneStep() {
+        stepBegan = System.nanoTime();
         step++;
+        field.beginStep();
+        flightEvents.beginStep(step);
+        if (allocations != null) {
+            allocations.beginStep();
+        }
+        if (recorder != null) {
+            recorder.beginStep();
+        }
+        if (lineage != null) {
+            lineage.stepStarted(step);
+        }
+        ScentField scent = field.getScentField();
+        if (scent != null) {
+            scent.update(field);
+        }
+        phaseDone(SCENT_PHASE);
+        if (intentEngine != null) {
+            intentEngine.step(animals, field, step);
+            phaseDone(ACT_PHASE);
+            diseasePass.spread(step);
+            phaseDone(DISEASE_PHASE);
+            endStep();
+            return;
+        }
+        if (speciesScheduler != null) {
+            speciesScheduler.step(animals, Randomizer.getRandom());
+            phaseDone(ACT_PHASE);
+            diseasePass.spread(step);
+            phaseDone(DISEASE_PHASE);
+            endStep();
+            return;
+        }
         List<Animal> newAnimals = new ArrayList<>();        
 
         for (Iterator<Animal> it = animals.iterator(); it.hasNext(); ) {
@@ -66,26 +163,139 @@ public class Simulator {
         }
     }
         animals.addAll(newAnimals);
+        phaseDone(ACT_PHASE);
+        diseasePass.spread(step);
+        phaseDone(DISEASE_PHASE);
+        endStep();
+    }
+
+    /**
+     * Finish a step: reorder the animals when due, publish the step's
+     * events, report it to the metrics server, stream it to viewers and
+     * record its statistics, then record it with the flight recorder.
+     */
+    private void endStep() {
+        reorder();
+        if (events != null) {
+            events.publish(step);
+        }
+        if (metrics != null) {
+            metrics.stepFinished(this, System.nanoTime() - stepBegan);
+        }
+        if (frameServer != null) {
+            frameServer.publish(field, step);
+        }
+        if (recorder != null) {
+            recorder.stepFinished(step);
+        }
+        phaseDone(FINISH_PHASE);
+        flightEvents.endStep();
+        if (allocations != null) {
+            allocations.endStep(step, diseasePass.getPopulation());
+        }
+    }
+
+    /**
+     * Note the end of a phase of the step for the instruments timing it.
+     * @param phase The phase.
+     */
+    private void phaseDone(int phase) {
+        flightEvents.phaseDone(phase);
+        if (allocations != null) {
+            allocations.phaseDone(phase);
+        }
+    }
+
+    /**
+     * Every reorderInterval steps, sort the animals by the Z-order of their
+     * cells so that the next steps walk the field in a cache-friendly way.
+     */
+    private void reorder() {
+        if (reorderInterval > 0 && step % reorderInterval == 0) {
+            mortonOrder.sort(animals, field);
+        }
+    }
+
+    /**
+     * Choose how often the animal list is sorted into Z-order. Animals act
+     * in list order, so sorting changes the course of the simulation
+     * (though not its rules).
+     * @param interval Sort every this many steps, or 0 never to sort.
+     */
+    public void setReorderInterval(int interval) {
+        reorderInterval = interval;
     }
         
+    /**
+     * Choose how steps are run. By default each animal acts in turn, in
+     * list order. With an intent engine the animals plan in parallel and
+     * their plans are applied in a seeded order, which gives the same
+     * result for the same seed however many threads are used. Disease
+     * then draws its chances from the engine too.
+     * @param engine The engine to use, or null to go back to act().
+     */
+    public void setIntentEngine(IntentEngine engine) {
+        intentEngine = engine;
+        diseasePass.setIntentEngine(engine);
+    }
+
+    /**
+     * Choose whether the animals act species by species, with a separate
+     * list and loop for each species, instead of in one mixed list.
+     * An intent engine, if set, takes precedence.
+     * @param scheduler The scheduler to use, or null to act in list order.
+     */
+    public void setSpeciesScheduler(SpeciesScheduler scheduler) {
+        speciesScheduler = scheduler;
+    }
+
     /**
      * Reset the simulation to a starting position.
      */
     public void reset() {
+        replaceWorld(this::populate);
+    }
+
+    /**
+     * Throw away the current world and build a new one, bringing along
+     * everything that keeps state about the world's animals.
+     * @param populate Fills the emptied field with the new world.
+     */
+    private void replaceWorld(Runnable populate) {
         step = 0;
         animals.clear();
-        populate();
+        diseasePass.reset();
+        if (lineage != null) {
+            lineage.clear();
+        }
+        if (events != null) {
+            events.clear();
+        }
+        populate.run();
+        if (recorder != null) {
+            recorder.track(animals);
+        }
     }
     
     /**
      * Randomly populate the field with foxes and rabbits.
      */
     private void populate() { 
-        
-        Random rand = Randomizer.getRandom();
         field.clear();
+        populate(0, field.getDepth());
+        field.growPlants();
+    }
 
-        for (int row = 0; row < field.getDepth(); row++) {
+    /**
+     * Randomly populate a band of rows of the field with animals. The
+     * field is neither cleared first nor planted afterwards.
+     * @param firstRow The first row to populate.
+     * @param lastRow The row after the last one to populate.
+     */
+    public void populate(int firstRow, int lastRow) {
+        Random rand = Randomizer.getRandom();
+
+        for (int row = firstRow; row < lastRow; row++) {
             for (int col = 0; col < field.getWidth(); col++) {
                 double randomValue = rand.nextDouble();
                 if (randomValue <= BEAR_CREATION_PROBABILITY) {
@@ -112,8 +322,121 @@ public class Simulator {
                 // else leave the location empty.
             }
         }
-        field.growPlants();
-    }   
+    }
+
+    /**
+     * Randomly populate a band of rows of the field so that what each cell
+     * holds follows from the seed and the cell's place in the world alone.
+     * The shared randomizer is reseeded from those before each cell is
+     * filled, so a strip of a larger world populated on its own (see
+     * ShardWorker) gets exactly the animals those rows get when the whole
+     * world is populated this way. The species mix matches populate(), but
+     * not cell for cell. The field is neither cleared first nor planted
+     * afterwards.
+     * @param seed The seed of the world.
+     * @param firstRow The first row to populate.
+     * @param lastRow The row after the last one to populate.
+     * @param rowOffset The row of the world that is row 0 of the field.
+     */
+    public void populateByCell(long seed, int firstRow, int lastRow, int rowOffset) {
+        Random rand = Randomizer.getRandom();
+        int width = field.getWidth();
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int col = 0; col < width; col++) {
+                long cell = (long) (row + rowOffset) * width + col;
+                Randomizer.reset(seed + 0x9E3779B97F4A7C15L * (cell + 1));
+                double randomValue = rand.nextDouble();
+                double total = 0;
+                for (int i = 0; i < CREATED_SPECIES.length; i++) {
+                    total += CREATION_PROBABILITIES[i];
+                    if (randomValue <= total) {
+                        animals.add(CREATED_SPECIES[i].create(field, new Location(row, col)));
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reset the simulation and populate the whole field quickly, for very
+     * large worlds. The field is cut into bands of rows that are sampled
+     * in parallel, each from its own generator seeded from the given seed,
+     * so the same seed always gives the same world however many threads
+     * run. Instead of a draw per cell, each band jumps straight from one
+     * occupied cell to the next (the gaps are geometrically distributed)
+     * and picks the species from an alias table; the empty cells passed
+     * over are planted on the way. The animals are then created band by
+     * band in order.
+     * The species mix matches populate(), but not cell for cell.
+     * @param seed The seed of the new world.
+     */
+    public void populateBulk(long seed) {
+        replaceWorld(() -> fillBulk(seed));
+    }
+
+    /**
+     * Fill the field as described for populateBulk().
+     */
+    private void fillBulk(long seed) {
+        field.clear();
+
+        int depth = field.getDepth();
+        int width = field.getWidth();
+        int bandRows = Math.max(BULK_BAND_ROWS, field.getBlockSize());
+        int bands = (depth + bandRows - 1) / bandRows;
+        AliasTable speciesTable = new AliasTable(CREATION_PROBABILITIES);
+        double logEmpty = Math.log(1 - TOTAL_PROBABILITY);
+        Plant plant = new Plant(); // plants have no state, so one serves every cell
+
+        // Sample every band in parallel: the occupied cells, as offsets
+        // into the band, and the index of the species for each.
+        int[][] cells = new int[bands][];
+        byte[][] kinds = new byte[bands][];
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            SplittableRandom rand = new SplittableRandom(seed + 0x9E3779B97F4A7C15L * (band + 1));
+            int rowStart = band * bandRows;
+            long size = (long) (Math.min(depth, rowStart + bandRows) - rowStart) * width;
+            int[] bandCells = new int[16];
+            byte[] bandKinds = new byte[16];
+            int count = 0;
+            long position = 0;
+            while (true) {
+                // Cells skipped before the next occupied one.
+                long gap = (long) (Math.log(1 - rand.nextDouble()) / logEmpty);
+                long occupied = position + gap;
+                for (long cell = position; cell < Math.min(occupied, size); cell++) {
+                    field.setPlantAt(rowStart + (int) (cell / width), (int) (cell % width), plant);
+                }
+                if (occupied >= size) {
+                    break;
+                }
+                if (count == bandCells.length) {
+                    bandCells = Arrays.copyOf(bandCells, count * 2);
+                    bandKinds = Arrays.copyOf(bandKinds, count * 2);
+                }
+                bandCells[count] = (int) occupied;
+                bandKinds[count] = (byte) speciesTable.next(rand);
+                count++;
+                position = occupied + 1;
+            }
+            cells[band] = Arrays.copyOf(bandCells, count);
+            kinds[band] = Arrays.copyOf(bandKinds, count);
+        });
+
+        // Animals draw their genes from the shared generator and register
+        // with the field, so they are created one band after another.
+        for (int band = 0; band < bands; band++) {
+            int rowStart = band * bandRows;
+            for (int i = 0; i < cells[band].length; i++) {
+                Location location = new Location(rowStart + cells[band][i] / width, cells[band][i] % width);
+                animals.add(CREATED_SPECIES[kinds[band][i]].create(field, location));
+            }
+            cells[band] = null;
+            kinds[band] = null;
+        }
+        field.plantsGrown(0, depth, 0, width);
+    }
     
 
 
@@ -135,7 +458,236 @@ public class Simulator {
         return field;
     }
 
+    /**
+     * Start recording the ancestry of the animals. The animals already in
+     * the field are recorded as founders.
+     * @param budgetBytes The most memory the records may take.
+     * @param pruneInterval Drop extinct lineages every this many steps.
+     * @return The lineage store.
+     */
+    public LineageStore enableLineage(long budgetBytes, int pruneInterval) {
+        if (lineage == null) {
+            lineage = new LineageStore(budgetBytes, pruneInterval);
+            lineage.stepStarted(step);
+            for (Animal animal : animals) {
+                if (animal != null && animal.isAlive()) {
+                    lineage.animalBorn(animal);
+                }
+            }
+            field.addListener(lineage);
+        }
+        return lineage;
+    }
+
+    /**
+     * Start publishing the births, deaths, infections and recoveries of
+     * every step as a stream.
+     * @return The event stream.
+     */
+    public EventStream enableEvents() {
+        if (events == null) {
+            events = new EventStream();
+            field.addListener(events);
+        }
+        return events;
+    }
+
+    /**
+     * Start serving metrics of the simulation in the Prometheus format at
+     * http://localhost:port/metrics. The figures are refreshed every second.
+     * @param port The port, or 0 for any free port.
+     * @return The running server.
+     * @throws IOException If the server cannot listen on the port.
+     */
+    public MetricsServer enableMetrics(int port) throws IOException {
+        return enableMetrics(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Start serving metrics of the simulation in the Prometheus format at
+     * http://address:port/metrics, such as on a public address for a
+     * scraper on another machine. The figures are refreshed every second.
+     * @param address The address to listen on.
+     * @param port The port, or 0 for any free port.
+     * @return The running server.
+     * @throws IOException If the server cannot listen on the port.
+     */
+    public MetricsServer enableMetrics(InetAddress address, int port) throws IOException {
+        if (metrics == null) {
+            metrics = new MetricsServer(address, port, 1000);
+            metrics.start();
+        }
+        return metrics;
+    }
+
+    /**
+     * Start streaming the field to viewers on this machine after every step.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param keyframeInterval Send a full frame every this many steps.
+     * @return The running server.
+     * @throws IOException If the server cannot listen on the port.
+     */
+    public FrameServer enableFrameServer(int port, int keyframeInterval) throws IOException {
+        return enableFrameServer(InetAddress.getLoopbackAddress(), port, keyframeInterval);
+    }
+
+    /**
+     * Start streaming the field after every step to viewers that connect
+     * to the given address, such as a public address for viewers on other
+     * machines.
+     * @param address The address to listen on.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param keyframeInterval Send a full frame every this many steps.
+     * @return The running server.
+     * @throws IOException If the server cannot listen on the port.
+     */
+    public FrameServer enableFrameServer(InetAddress address, int port, int keyframeInterval)
+        throws IOException
+    {
+        if (frameServer == null) {
+            frameServer = new FrameServer(address, port, keyframeInterval);
+        }
+        return frameServer;
+    }
+
+    /**
+     * Start measuring the memory allocated in each step and phase.
+     * @param budgetBytes Warn when a step allocates more than this many
+     *                    bytes; 0 for no budget.
+     * @return The telemetry.
+     */
+    public AllocationTelemetry enableAllocationTelemetry(long budgetBytes) {
+        if (allocations == null) {
+            allocations = new AllocationTelemetry(budgetBytes);
+        }
+        return allocations;
+    }
+
+    /**
+     * @return The allocation telemetry, or null if it is not enabled.
+     */
+    public AllocationTelemetry getAllocationTelemetry() {
+        return allocations;
+    }
+
+    /**
+     * Start recording the population statistics of every step to a
+     * columnar file. Close the recorder to finish the file.
+     * @param file The file to write; it is replaced if it exists.
+     * @return The recorder.
+     * @throws IOException If the file cannot be created.
+     */
+    public TimeSeriesRecorder enableRecorder(Path file) throws IOException {
+        if (recorder == null) {
+            recorder = new TimeSeriesRecorder(file, diseasePass, 1024);
+            recorder.track(animals);
+            field.addListener(recorder);
+        }
+        return recorder;
+    }
+
+    /**
+     * @return The time series recorder, or null if none is enabled.
+     */
+    public TimeSeriesRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return The metrics server, or null if metrics are not being served.
+     */
+    public MetricsServer getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The event stream, or null if events are not being published.
+     */
+    public EventStream getEvents() {
+        return events;
+    }
+
+    /**
+     * @return The lineage store, or null if lineage is not being recorded.
+     */
+    public LineageStore getLineage() {
+        return lineage;
+    }
+
+    /**
+     * @return The pass that spreads disease and keeps the epidemic figures.
+     */
+    public DiseasePass getDiseasePass() {
+        return diseasePass;
+    }
+
+    /**
+     * Return the live list of animals being simulated. Changes to the
+     * list change the simulation.
+     * @return The animals.
+     */
+    public List<Animal> getAnimals() {
+        return animals;
+    }
+
     public int getStep() {
         return step;
     }
-}
\ No newline at end of file
+
+    /**
+     * Walker's alias table: picks one of n outcomes with given weights in
+     * constant time, using one integer and one double draw.
+     */
+    private static class AliasTable {
+        private final double[] probability;
+        private final int[] alias;
+
+        AliasTable(double[] weights) {
+            int n = weights.length;
+            probability = new double[n];
+            alias = new int[n];
+            double total = 0;
+            for (double weight : weights) {
+                total += weight;
+            }
+            double[] scaled = new double[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = weights[i] * n / total;
+                if (scaled[i] < 1) {
+                    small[smallCount++] = i;
+                }
+                else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                probability[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] -= 1 - scaled[less];
+                if (scaled[more] < 1) {
+                    small[smallCount++] = more;
+                }
+                else {
+                    large[largeCount++] = more;
+                }
+            }
+            while (largeCount > 0) {
+                probability[large[--largeCount]] = 1;
+            }
+            while (smallCount > 0) {
+                probability[small[--smallCount]] = 1; // rounding leftovers
+            }
+        }
+
+        int next(SplittableRandom rand) {
+            int i = rand.nextInt(probability.length);
+            return rand.nextDouble() < probability[i] ? i : alias[i];
+        }
+    }
+}
@@ -9,6 +9,7 @@ import javafx.scene.Scene;
 import javafx.stage.Stage;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.Priority;
+import java.util.List;
 
 
 /**
@@ -27,6 +28,7 @@ public class SimulatorView extends Application {
     public static final int WIN_HEIGHT = 800;  
     
     private static final Color EMPTY_COLOR = Color.WHITE;
+    private static final int OVERLAY_BIN = 8; // cells per side of a density bin
 
     private final String GENERATION_PREFIX = "Generation: ";
     private final String POPULATION_PREFIX = "Population: "; //label for population
@@ -36,19 +38,45 @@ public class SimulatorView extends Application {
     private FieldCanvas fieldCanvas;
     private FieldStats stats;
     private Simulator simulator;
+    private Field drawnField;
+    private int lastDrawnStep;
+    private int overlayLayer = -1; // RangeIndex layer shown as a heatmap, or -1
+    private int[] blockColors = new int[0]; // reused for zoomed-out frames
+    private double dragX, dragY;
 
     /**
      * Create a view of the given width and height.
-     * @param height The simulation's height.
-     * @param width  The simulation's width.
+     * The grid is GRID_HEIGHT by GRID_WIDTH unless a depth and width are
+     * given as the application's parameters.
+     * Drag the field to pan it and scroll to zoom.
      */
     @Override
     public void start(Stage stage) {
 
+        List<String> args = getParameters() == null ? List.of() : getParameters().getRaw();
+        int gridHeight = args.size() >= 2 ? Integer.parseInt(args.get(0)) : GRID_HEIGHT;
+        int gridWidth = args.size() >= 2 ? Integer.parseInt(args.get(1)) : GRID_WIDTH;
+
         stats = new FieldStats();
         fieldCanvas = new FieldCanvas(WIN_WIDTH - 50, WIN_HEIGHT - 50);
-        fieldCanvas.setScale(GRID_HEIGHT, GRID_WIDTH);
-        simulator = new Simulator(GRID_HEIGHT, GRID_WIDTH);
+        fieldCanvas.setScale(gridHeight, gridWidth);
+        simulator = new Simulator(gridHeight, gridWidth);
+        simulator.getField().enableMipPyramid();
+
+        fieldCanvas.setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+        });
+        fieldCanvas.setOnMouseDragged(event -> {
+            fieldCanvas.pan(event.getX() - dragX, event.getY() - dragY);
+            dragX = event.getX();
+            dragY = event.getY();
+            redraw();
+        });
+        fieldCanvas.setOnScroll(event -> {
+            fieldCanvas.zoom(event.getDeltaY() > 0 ? 1.25 : 0.8, event.getX(), event.getY());
+            redraw();
+        });
 
         Group root = new Group();
 
@@ -144,41 +172,140 @@ public class SimulatorView extends Application {
 
     /**
      * Show the current status of the field.
+     * Only the part of the field in the viewport is drawn. When cells are
+     * large enough to see, only blocks of the field that have held animals
+     * or changed since the last drawing are visited; the canvas keeps the
+     * rest from before. When zoomed out, blocks of cells are drawn in the
+     * colour of what is most common in them, taken from the field's mip
+     * pyramid.
      * @param generation The current generation.
      * @param field The field whose status is to be displayed.
      */
     public void updateCanvas(int generation, Field field) {
         genLabel.setText(GENERATION_PREFIX + generation);
-        stats.reset(); //reset normal population
-        stats.resetInfected(); //also reset infected population
-
+        MipPyramid pyramid = field.enableMipPyramid();
 
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) { //iterate through grid
-                Animal animal = field.getObjectAt(row, col);
-                Plant plant = field.getPlantAt(new Location(row, col));
-
-                if (animal != null && animal.isAlive()) {
-                    stats.incrementCount(animal.getClass()); //adds specific animal to count 
-                
-                // Track infected animals and adds specific infected animal to count 
-                if (animal.isSick()) {
-                    stats.incrementInfectedCount(animal.getClass());
-                }
-                    // Darken the color if the animal sick
-                    Color colorOfAnimal = animal.isSick() ? animal.getTheColor().darker() : animal.getTheColor();
-                    fieldCanvas.drawMark(col, row, colorOfAnimal);
-                } else if (plant != null) {
-                    fieldCanvas.drawMark(col, row, plant.getTheColor());
-                } else {
-                    fieldCanvas.drawMark(col, row, EMPTY_COLOR);
+        if (field != drawnField || overlayLayer >= 0) {
+            drawnField = field;
+            lastDrawnStep = -1; // a new field, or last frame's overlay, needs a full redraw
+        }
+        if (!fieldCanvas.isDetailed()) {
+            drawLevelOfDetail(pyramid, fieldCanvas.getLevelOfDetail());
+        }
+        else {
+            if (lastDrawnStep < 0) {
+                fieldCanvas.clear();
+            }
+            int size = field.getBlockSize();
+            int firstRow = fieldCanvas.getFirstRow();
+            int endRow = fieldCanvas.getEndRow();
+            int firstCol = fieldCanvas.getFirstCol();
+            int endCol = fieldCanvas.getEndCol();
+            for (int blockRow = firstRow / size; blockRow * size < endRow; blockRow++) {
+                for (int blockCol = firstCol / size; blockCol * size < endCol; blockCol++) {
+                    if (!field.isBlockActive(blockRow, blockCol, lastDrawnStep)) {
+                        continue; // dormant since the last drawing
+                    }
+                    int rowEnd = Math.min(endRow, (blockRow + 1) * size);
+                    int colEnd = Math.min(endCol, (blockCol + 1) * size);
+                    for (int row = Math.max(firstRow, blockRow * size); row < rowEnd; row++) {
+                        for (int col = Math.max(firstCol, blockCol * size); col < colEnd; col++) { //iterate through the visible part of the block
+                            drawCell(field, row, col);
+                        }
+                    }
                 }
             }
         }
+        lastDrawnStep = field.getActivityStep();
+        if (overlayLayer >= 0) {
+            drawOverlay(field);
+        }
 
+        // The counts cover the whole field, not just the viewport.
+        stats.reset(); //reset normal population
+        stats.resetInfected(); //also reset infected population
+        for (Species species : Species.values()) {
+            stats.incrementCount(species.getAnimalClass(), pyramid.total(species.getCode()));
+            stats.incrementInfectedCount(species.getAnimalClass(), simulator.getDiseasePass().getInfected(species));
+        }
         stats.countFinished();
         infectedPopulation.setText("Infected Population: " + stats.getTheInfectedPopulationDetails(field));
         population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field));
+        setInfoText(String.format("Dormant: %.0f%%", field.getSkippedFraction() * 100));
+    }
+
+    /**
+     * Show the density of one layer of the field's range index as a red
+     * heatmap over the grid, or turn the heatmap off.
+     * @param layer A RangeIndex layer (ANIMALS, a species code, INFECTED
+     *              or PLANTS), or -1 for no overlay.
+     */
+    public void setDensityOverlay(int layer) {
+        overlayLayer = layer;
+        if (layer >= 0) {
+            simulator.getField().enableRangeIndex();
+        }
+        lastDrawnStep = -1;
+        updateCanvas(simulator.getStep(), simulator.getField());
+    }
+
+    /**
+     * Draw the density heatmap of the overlay layer on top of the cells.
+     */
+    private void drawOverlay(Field field) {
+        double[][] density = field.enableRangeIndex().heatmap(overlayLayer, OVERLAY_BIN);
+        for (int binRow = 0; binRow < density.length; binRow++) {
+            for (int binCol = 0; binCol < density[binRow].length; binCol++) {
+                if (density[binRow][binCol] > 0) {
+                    int row = binRow * OVERLAY_BIN;
+                    int col = binCol * OVERLAY_BIN;
+                    fieldCanvas.drawBlock(col, row, Math.min(OVERLAY_BIN, field.getWidth() - col),
+                                          Math.min(OVERLAY_BIN, field.getDepth() - row),
+                                          Color.rgb(255, 0, 0, 0.6 * density[binRow][binCol]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw the visible part of the field as blocks of one level of the mip
+     * pyramid, one pixel of an image per block.
+     */
+    private void drawLevelOfDetail(MipPyramid pyramid, int level) {
+        int firstRow = fieldCanvas.getFirstRow() >> level;
+        int firstCol = fieldCanvas.getFirstCol() >> level;
+        int endRow = Math.min(pyramid.getBlockRows(level), ((fieldCanvas.getEndRow() - 1) >> level) + 1);
+        int endCol = Math.min(pyramid.getBlockCols(level), ((fieldCanvas.getEndCol() - 1) >> level) + 1);
+        int cols = endCol - firstCol;
+        int rows = endRow - firstRow;
+        if (blockColors.length < cols * rows) {
+            blockColors = new int[cols * rows];
+        }
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                blockColors[row * cols + col] = FrameBuilder.colorOf(pyramid.dominant(level, firstRow + row, firstCol + col));
+            }
+        }
+        fieldCanvas.clear();
+        fieldCanvas.drawBlocks(blockColors, cols, rows, firstCol << level, firstRow << level, 1 << level);
+    }
+
+    /**
+     * Draw one cell of the field.
+     */
+    private void drawCell(Field field, int row, int col) {
+        Animal animal = field.getObjectAt(row, col);
+        Plant plant = field.getPlantAt(row, col);
+
+        if (animal != null && animal.isAlive()) {
+            // Darken the color if the animal sick
+            Color colorOfAnimal = animal.isSick() ? animal.getTheColor().darker() : animal.getTheColor();
+            fieldCanvas.drawMark(col, row, colorOfAnimal);
+        } else if (plant != null) {
+            fieldCanvas.drawMark(col, row, plant.getTheColor());
+        } else {
+            fieldCanvas.drawMark(col, row, EMPTY_COLOR);
+        }
     }
 
 
@@ -210,11 +337,37 @@ public class SimulatorView extends Application {
         }).start();
     }
 
+    /**
+     * Zoom in (factor above 1) or out about the centre of the view.
+     * @param factor How much larger cells become.
+     */
+    public void zoom(double factor) {
+        fieldCanvas.zoom(factor, fieldCanvas.getWidth() / 2, fieldCanvas.getHeight() / 2);
+        redraw();
+    }
+
+    /**
+     * Zoom out to show the whole field.
+     */
+    public void showAll() {
+        fieldCanvas.zoom(0, 0, 0);
+        redraw();
+    }
+
+    /**
+     * Draw the whole viewport again, as after panning or zooming.
+     */
+    private void redraw() {
+        lastDrawnStep = -1;
+        updateCanvas(simulator.getStep(), simulator.getField());
+    }
+
     /**
      * Reset the simulation to a starting position.
      */
     public void reset() {
         simulator.reset();
+        lastDrawnStep = -1;
         updateCanvas(simulator.getStep(), simulator.getField());
     }
     
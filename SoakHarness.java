@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Run a simulation for a long time under stress and report the tail
+ * latency of simulateOneStep.
+ *
+ * Each scenario sets up a field that pushes the simulation down one
+ * expensive path, and may top it up between steps so that it stays there
+ * for the whole run:
+ *   baseline         the normal random start.
+ *   prey-explosion   a field 60% full of mature squirrels and deer with
+ *                    litters of 12 and the highest breeding probability.
+ *   near-extinction  a handful of animals on an empty field.
+ *   packed           every cell holds an animal, so most animals die by
+ *                    overcrowding; refilled after every step.
+ *   pandemic         a fifth of the animals sick at the start, and again
+ *                    whenever the disease dies out.
+ * A scenario whose animals have all died is set up again. Only
+ * simulateOneStep is timed, not the setting up or topping up.
+ *
+ * Step times are kept in a LatencyHistogram per window of steps. One
+ * line is printed per window, and one for the whole run, with fixed
+ * columns and a fixed seed so that runs of two versions can be compared
+ * with diff.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class SoakHarness {
+
+    // Genes are read by Animal.parseGene: breeding age, maximum age,
+    // breeding probability (%), litter size, disease probability (%),
+    // metabolism (tenths) and two unused digits.
+    private static final String FERTILE_GENE = "12" + "99" + "50" + "12" + "00" + "05" + "00";
+    private static final int NEAR_EXTINCTION_ANIMALS = 10;
+
+    /**
+     * The stress scenarios.
+     */
+    public enum Scenario {
+        BASELINE, PREY_EXPLOSION, NEAR_EXTINCTION, PACKED, PANDEMIC;
+
+        /**
+         * @return The name of the scenario, as given on the command line.
+         */
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        /**
+         * Find a scenario by name.
+         * @param name The name, as given by getName().
+         * @return The scenario.
+         * @throws IllegalArgumentException If there is no such scenario.
+         */
+        public static Scenario named(String name) {
+            for (Scenario scenario : values()) {
+                if (scenario.getName().equals(name)) {
+                    return scenario;
+                }
+            }
+            throw new IllegalArgumentException("Unknown scenario: " + name);
+        }
+    }
+
+    private final Scenario scenario;
+    private final Simulator simulator;
+    private final Field field;
+    private final Random rand;
+
+    /**
+     * Set up a scenario on a new field. The shared randomizer is reset
+     * first, so the run is repeatable.
+     * @param scenario The scenario.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public SoakHarness(Scenario scenario, int depth, int width) {
+        this.scenario = scenario;
+        Randomizer.reset();
+        rand = Randomizer.getRandom();
+        field = new Field(depth, width);
+        switch (scenario) {
+            case BASELINE:
+            case PANDEMIC:
+                simulator = new Simulator(field);
+                break;
+            default:
+                simulator = new Simulator(field, new ArrayList<>());
+                break;
+        }
+        populate();
+    }
+
+    /**
+     * Fill the field as the scenario requires, at the start and whenever
+     * every animal has died.
+     */
+    private void populate() {
+        switch (scenario) {
+            case PREY_EXPLOSION:
+                for (int row = 0; row < field.getDepth(); row++) {
+                    for (int col = 0; col < field.getWidth(); col++) {
+                        if (field.getObjectAt(row, col) == null && rand.nextDouble() < 0.6) {
+                            Species species = rand.nextBoolean() ? Species.SQUIRREL : Species.DEER;
+                            Animal animal = species.create(field, new Location(row, col),
+                                                           FERTILE_GENE, rand.nextBoolean());
+                            animal.restoreState(12, animal.getFoodLevel(), 0);
+                            simulator.getAnimals().add(animal);
+                        }
+                    }
+                }
+                break;
+            case NEAR_EXTINCTION:
+                reseed(NEAR_EXTINCTION_ANIMALS);
+                break;
+            case PACKED:
+                fillEmptyCells();
+                break;
+            case PANDEMIC:
+                if (simulator.getDiseasePass().getPopulation() == 0) {
+                    simulator.reset();
+                }
+                infect(0.2);
+                break;
+            default:
+                if (simulator.getDiseasePass().getPopulation() == 0) {
+                    simulator.reset();
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return The simulator being soaked.
+     */
+    public Simulator getSimulator() {
+        return simulator;
+    }
+
+    /**
+     * Run one timed step, then top the field up as the scenario requires.
+     * @return The time simulateOneStep took, in nanoseconds.
+     */
+    public long step() {
+        long start = System.nanoTime();
+        simulator.simulateOneStep();
+        long nanos = System.nanoTime() - start;
+        if (simulator.getDiseasePass().getPopulation() == 0) {
+            populate();
+        }
+        else if (scenario == Scenario.PACKED) {
+            fillEmptyCells();
+        }
+        else if (scenario == Scenario.PANDEMIC && simulator.getDiseasePass().getInfected() == 0) {
+            infect(0.2);
+        }
+        return nanos;
+    }
+
+    /**
+     * Add an animal of a random species and age at a free cell.
+     */
+    private void add(Location location) {
+        Species species = Species.values()[rand.nextInt(Species.values().length)];
+        Animal animal = species.create(field, location);
+        simulator.getAnimals().add(animal);
+    }
+
+    private void reseed(int count) {
+        for (int i = 0; i < count; i++) {
+            Location location = new Location(rand.nextInt(field.getDepth()), rand.nextInt(field.getWidth()));
+            if (field.getObjectAt(location) == null) {
+                add(location);
+            }
+        }
+    }
+
+    private void fillEmptyCells() {
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                if (field.getObjectAt(row, col) == null) {
+                    add(new Location(row, col));
+                }
+            }
+        }
+    }
+
+    private void infect(double share) {
+        for (Animal animal : simulator.getAnimals()) {
+            if (animal != null && animal.isAlive() && !animal.isSick() && rand.nextDouble() < share) {
+                animal.becomeSick();
+            }
+        }
+    }
+
+    /**
+     * Soak a scenario, printing a line per window and one for the run.
+     * @param scenario The scenario.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param steps The most steps to run.
+     * @param deadline Stop at this System.nanoTime(), or Long.MAX_VALUE.
+     * @param window Steps per window.
+     */
+    public static void soak(Scenario scenario, int depth, int width, long steps, long deadline, int window) {
+        SoakHarness harness = new SoakHarness(scenario, depth, width);
+        LatencyHistogram windowTimes = new LatencyHistogram();
+        LatencyHistogram runTimes = new LatencyHistogram();
+        int windows = 0;
+        for (long step = 1; step <= steps && System.nanoTime() < deadline; step++) {
+            windowTimes.record(harness.step());
+            if (windowTimes.getCount() == window) {
+                print(scenario.getName(), Integer.toString(++windows), windowTimes, harness);
+                runTimes.add(windowTimes);
+                windowTimes.reset();
+            }
+        }
+        if (windowTimes.getCount() > 0) {
+            print(scenario.getName(), Integer.toString(++windows), windowTimes, harness);
+            runTimes.add(windowTimes);
+        }
+        print(scenario.getName(), "all", runTimes, harness);
+    }
+
+    private static void print(String scenario, String window, LatencyHistogram times, SoakHarness harness) {
+        System.out.printf(Locale.ROOT, "%-16s %6s %8d %10.1f %10.1f %10.1f %10.1f %10.1f %9d %9d%n",
+                          scenario, window, times.getCount(), times.getMean() / 1e3,
+                          times.getValueAtPercentile(50) / 1e3, times.getValueAtPercentile(99) / 1e3,
+                          times.getValueAtPercentile(99.9) / 1e3, times.getMax() / 1e3,
+                          harness.simulator.getDiseasePass().getPopulation(),
+                          harness.simulator.getDiseasePass().getInfected());
+    }
+
+    /**
+     * Parse a run length: a number of steps, or a time such as 90s, 30m
+     * or 2h.
+     * @return {steps, nanoseconds}; the one not given is Long.MAX_VALUE.
+     */
+    private static long[] parseLength(String length) {
+        char unit = length.charAt(length.length() - 1);
+        if (Character.isDigit(unit)) {
+            return new long[] { Long.parseLong(length), Long.MAX_VALUE };
+        }
+        long amount = Long.parseLong(length.substring(0, length.length() - 1));
+        long seconds;
+        switch (unit) {
+            case 's':
+                seconds = amount;
+                break;
+            case 'm':
+                seconds = amount * 60;
+                break;
+            case 'h':
+                seconds = amount * 3600;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown unit in " + length);
+        }
+        return new long[] { Long.MAX_VALUE, seconds * 1_000_000_000L };
+    }
+
+    /**
+     * Soak one scenario, or all of them in turn.
+     * @param args scenario name or "all", depth, width, run length per
+     *             scenario (steps, or a time such as 30m) and steps per
+     *             window.
+     */
+    public static void main(String[] args) {
+        String which = args.length > 0 ? args[0] : "all";
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        long[] length = parseLength(args.length > 3 ? args[3] : "2000");
+        int window = args.length > 4 ? Integer.parseInt(args[4]) : 500;
+
+        System.out.printf("# soak %s %dx%d length=%s window=%d%n", which, depth, width,
+                          args.length > 3 ? args[3] : "2000", window);
+        System.out.printf("%-16s %6s %8s %10s %10s %10s %10s %10s %9s %9s%n", "scenario", "window",
+                          "steps", "mean_us", "p50_us", "p99_us", "p99.9_us", "max_us", "animals",
+                          "infected");
+        Scenario only = which.equals("all") ? null : Scenario.named(which);
+        for (Scenario scenario : Scenario.values()) {
+            if (only == null || only == scenario) {
+                long deadline = length[1] == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + length[1];
+                soak(scenario, depth, width, length[0], deadline, window);
+            }
+        }
+    }
+}
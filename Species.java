@@ -0,0 +1,169 @@
+import javafx.scene.paint.Color;
+
+/**
+ * The species that live in the simulation, with the small integer code
+ * used for them wherever cell state is kept in primitive form rather than
+ * as Animal objects.
+ *
+ * Code 0 is never used by a species, so it can stand for an empty cell.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public enum Species {
+    BEAR(1, Color.RED, Bear.class, true),
+    WOLF(2, Color.PINK, Wolf.class, true),
+    WILD_BOAR(3, Color.GREY, WildBoar.class, false),
+    DEER(4, Color.BLUE, Deer.class, false),
+    SQUIRREL(5, Color.PURPLE, Squirrel.class, false);
+
+    // Indexed by every value three bits can hold; unused codes map to null.
+    private static final Species[] BY_CODE = { null, BEAR, WOLF, WILD_BOAR, DEER, SQUIRREL, null, null };
+
+    private final int code;
+    private final Color color;
+    private final Class<? extends Animal> animalClass;
+    private final boolean predator;
+
+    private Species(int code, Color color, Class<? extends Animal> animalClass, boolean predator) {
+        this.code = code;
+        this.color = color;
+        this.animalClass = animalClass;
+        this.predator = predator;
+    }
+
+    /**
+     * @return The code for this species, from 1 upwards.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return The colour animals of this species are drawn in.
+     */
+    public Color getColor() {
+        return color;
+    }
+
+    /**
+     * @return The class of the animals of this species.
+     */
+    public Class<? extends Animal> getAnimalClass() {
+        return animalClass;
+    }
+
+    /**
+     * @return true if animals of this species hunt other animals. This is
+     *         what Animal.isPredator() answers for every animal.
+     */
+    public boolean isPredator() {
+        return predator;
+    }
+
+    /**
+     * Create an animal of this species with a random age, as at the
+     * start of a simulation.
+     * @param field The field the animal lives in.
+     * @param location Where in the field to place it.
+     * @return The new animal.
+     */
+    public Animal create(Field field, Location location) {
+        switch (this) {
+            case BEAR:
+                return new Bear(true, field, location, color);
+            case WOLF:
+                return new Wolf(true, field, location);
+            case WILD_BOAR:
+                return new WildBoar(true, field, location, color);
+            case DEER:
+                return new Deer(true, field, location, color);
+            default:
+                return new Squirrel(true, field, location, color);
+        }
+    }
+
+    /**
+     * Create a newborn animal of this species with the given genes.
+     * @param field The field the animal lives in.
+     * @param location Where in the field to place it.
+     * @param gene The animal's gene string.
+     * @param isMale true for a male.
+     * @return The new animal.
+     */
+    public Animal create(Field field, Location location, String gene, boolean isMale) {
+        switch (this) {
+            case BEAR:
+                return new Bear(field, location, color, gene, isMale);
+            case WOLF:
+                return new Wolf(field, location, color, gene, isMale);
+            case WILD_BOAR:
+                return new WildBoar(field, location, color, gene, isMale);
+            case DEER:
+                return new Deer(field, location, color, gene, isMale);
+            default:
+                return new Squirrel(field, location, color, gene, isMale);
+        }
+    }
+
+    /**
+     * Create an animal of this species with the given genes and state,
+     * such as a copy of one held by another process. Unlike the other
+     * ways of creating an animal, this draws nothing from the shared
+     * random generator.
+     * @param field The field the animal lives in.
+     * @param location Where in the field to place it.
+     * @param gene The animal's gene string.
+     * @param isMale true for a male.
+     * @param age The age.
+     * @param foodLevel The food level.
+     * @param sicknessDuration Steps of sickness left, 0 if healthy.
+     * @return The new animal.
+     */
+    public Animal restore(Field field, Location location, String gene, boolean isMale,
+                          int age, int foodLevel, int sicknessDuration) {
+        switch (this) {
+            case BEAR:
+                return new Bear(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+            case WOLF:
+                return new Wolf(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+            case WILD_BOAR:
+                return new WildBoar(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+            case DEER:
+                return new Deer(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+            default:
+                return new Squirrel(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+        }
+    }
+
+    /**
+     * Return the species of an animal.
+     * @param animal The animal; must not be null.
+     * @return Its species.
+     */
+    public static Species of(Animal animal) {
+        if (animal instanceof Bear) {
+            return BEAR;
+        }
+        else if (animal instanceof Wolf) {
+            return WOLF;
+        }
+        else if (animal instanceof WildBoar) {
+            return WILD_BOAR;
+        }
+        else if (animal instanceof Deer) {
+            return DEER;
+        }
+        return SQUIRREL;
+    }
+
+    /**
+     * Return the species with the given code.
+     * @param code A species code, or 0; at most 7.
+     * @return The species, or null for code 0 (no animal) or unused codes.
+     */
+    public static Species fromCode(int code) {
+        return BY_CODE[code];
+    }
+}
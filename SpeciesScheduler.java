@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Step the animals one species at a time instead of in one mixed list.
+ *
+ * Calling act() on a list holding five kinds of animal gives the JIT a
+ * call site it cannot inline. Here every species has its own list and its
+ * own loop, each of which only ever calls one act() method, so each loop
+ * can be compiled for its species.
+ *
+ * The species take turns according to a pattern: the scheduler walks the
+ * pattern, stepping up to 'batch' animals of each species in turn, until
+ * every animal has acted. A pattern of all species with a huge batch runs
+ * each species as one block; a batch of 1 comes closest to the mixed
+ * order. Because running one species first gives it an edge (prey moves
+ * before predators arrive, and so on), the scheduler can also shuffle the
+ * order of the batches every step, which keeps each batch monomorphic but
+ * lets no species go first every time.
+ *
+ * The simulator's list stays the one true list of animals: each step it is
+ * split into the species lists, and afterwards refilled with the animals
+ * still alive, species by species, followed by the newborn.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class SpeciesScheduler {
+
+    private final Species[] pattern;
+    private final int batch;
+    private final boolean shuffled;
+
+    private final List<Bear> bears = new ArrayList<>();
+    private final List<Wolf> wolves = new ArrayList<>();
+    private final List<WildBoar> wildBoars = new ArrayList<>();
+    private final List<Deer> deer = new ArrayList<>();
+    private final List<Squirrel> squirrels = new ArrayList<>();
+    // Batches of the current step, as species code, start and end.
+    private int[] batches = new int[48];
+    private int batchCount;
+
+    /**
+     * Create a scheduler that runs the species in blocks, in the order of
+     * the Species enum.
+     */
+    public SpeciesScheduler() {
+        this(Species.values(), Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Create a scheduler with the given interleaving.
+     * @param pattern The order in which the species take turns. A species
+     *                may appear more than once to get more turns; one that
+     *                does not appear at all never acts.
+     * @param batch The most animals of a species stepped per turn.
+     * @param shuffled true to shuffle the batches of every step.
+     */
+    public SpeciesScheduler(Species[] pattern, int batch, boolean shuffled) {
+        if (pattern.length == 0 || batch < 1) {
+            throw new IllegalArgumentException("Need at least one species and a batch of at least 1");
+        }
+        this.pattern = pattern.clone();
+        this.batch = batch;
+        this.shuffled = shuffled;
+    }
+
+    /**
+     * Run one step for the given animals.
+     * @param animals The animals to simulate; the dead are removed and the
+     *                newborn added.
+     * @param rand The generator used to shuffle the batches.
+     */
+    public void step(List<Animal> animals, Random rand) {
+        partition(animals);
+        planBatches();
+        if (shuffled) {
+            shuffleBatches(rand);
+        }
+
+        List<Animal> newAnimals = new ArrayList<>();
+        for (int b = 0; b < batchCount; b++) {
+            int start = batches[3 * b + 1];
+            int end = batches[3 * b + 2];
+            // One loop per species, so that every act() call site only
+            // ever sees a single class.
+            switch (Species.fromCode(batches[3 * b])) {
+                case BEAR:
+                    for (int i = start; i < end; i++) {
+                        bears.get(i).act(newAnimals);
+                    }
+                    break;
+                case WOLF:
+                    for (int i = start; i < end; i++) {
+                        wolves.get(i).act(newAnimals);
+                    }
+                    break;
+                case WILD_BOAR:
+                    for (int i = start; i < end; i++) {
+                        wildBoars.get(i).act(newAnimals);
+                    }
+                    break;
+                case DEER:
+                    for (int i = start; i < end; i++) {
+                        deer.get(i).act(newAnimals);
+                    }
+                    break;
+                default:
+                    for (int i = start; i < end; i++) {
+                        squirrels.get(i).act(newAnimals);
+                    }
+                    break;
+            }
+        }
+
+        animals.clear();
+        for (Species species : Species.values()) {
+            for (Animal animal : listOf(species)) {
+                if (animal.isAlive()) {
+                    animals.add(animal);
+                }
+            }
+            listOf(species).clear();
+        }
+        animals.addAll(newAnimals);
+    }
+
+    /**
+     * Split the animals into the species lists, dropping empty entries.
+     * Animals of species missing from the pattern are kept but do not act.
+     */
+    private void partition(List<Animal> animals) {
+        for (Animal animal : animals) {
+            if (animal == null) {
+                continue;
+            }
+            switch (Species.of(animal)) {
+                case BEAR:
+                    bears.add((Bear) animal);
+                    break;
+                case WOLF:
+                    wolves.add((Wolf) animal);
+                    break;
+                case WILD_BOAR:
+                    wildBoars.add((WildBoar) animal);
+                    break;
+                case DEER:
+                    deer.add((Deer) animal);
+                    break;
+                default:
+                    squirrels.add((Squirrel) animal);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Cut the species lists into batches, in pattern order.
+     */
+    private void planBatches() {
+        batchCount = 0;
+        int[] next = new int[8]; // next unscheduled animal of each species
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (Species species : pattern) {
+                int code = species.getCode();
+                int size = listOf(species).size();
+                if (next[code] < size) {
+                    int end = (int) Math.min(size, (long) next[code] + batch);
+                    addBatch(code, next[code], end);
+                    next[code] = end;
+                    more |= end < size;
+                }
+            }
+        }
+    }
+
+    private void addBatch(int code, int start, int end) {
+        if (3 * batchCount + 3 > batches.length) {
+            batches = Arrays.copyOf(batches, batches.length * 2);
+        }
+        batches[3 * batchCount] = code;
+        batches[3 * batchCount + 1] = start;
+        batches[3 * batchCount + 2] = end;
+        batchCount++;
+    }
+
+    private void shuffleBatches(Random rand) {
+        for (int i = batchCount - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            for (int k = 0; k < 3; k++) {
+                int swap = batches[3 * i + k];
+                batches[3 * i + k] = batches[3 * j + k];
+                batches[3 * j + k] = swap;
+            }
+        }
+    }
+
+    private List<? extends Animal> listOf(Species species) {
+        switch (species) {
+            case BEAR:
+                return bears;
+            case WOLF:
+                return wolves;
+            case WILD_BOAR:
+                return wildBoars;
+            case DEER:
+                return deer;
+            default:
+                return squirrels;
+        }
+    }
+}
@@ -17,22 +17,28 @@ public class Squirrel extends Animal {
             age = 0;
             foodlevel = 8; // Start with full food level for squirrels
         }
+        field.animalAged(this);
     }
 
     public Squirrel(Field field, Location location, Color color, String gene, boolean isMale) {
             super(field, location, color, gene, isMale);
     }
+
+    public Squirrel(Field field, Location location, Color color, String gene, boolean isMale,
+                    int age, int foodLevel, int sicknessDuration) {
+            super(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+    }
     
     public void act(List<Animal> newSquirrel) {
         incrementAge();
         updateSickness(); // Handle sickness duration
-        spreadDisease(); // Spread disease to nearby animals
         if (isAlive()) {
             giveBirth(newSquirrel);
-            Location newLocation = getField().getFreeAdjacentLocation(getLocation());
+            Location newLocation = findFreeLocation();
             if (newLocation != null) {
                 setLocation(newLocation);
             } else {
+                FlightEvents.overcrowded(this);
                 setDead(); // if overcrowding
             }
         }
@@ -48,11 +54,13 @@ public class Squirrel extends Animal {
         Field field = getField();
         List<Location> free = field.getFreeAdjacentLocations(getLocation());
         int births = breed(); // Uses the defined breeding probability mechanism & litter size
+        int room = free.size();
         for (int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
             Squirrel young = (Squirrel) this.mateWith(this, field, loc); // Uses the genetic crossover
             newSquirrels.add(young);
         }
+        FlightEvents.litter(this, births, Math.min(births, room));
     }
 
     @Override
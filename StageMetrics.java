@@ -0,0 +1,74 @@
+/**
+ * Latency figures for one stage of a pipeline: how many items it has
+ * handled, how long they waited in its queue before it got to them, and
+ * how long it spent on them.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class StageMetrics {
+
+    private final String name;
+    private long count;
+    private long totalWait, maxWait;
+    private long totalService, maxService;
+
+    /**
+     * Create empty metrics for a stage.
+     * @param name The name of the stage.
+     */
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record one item handled by the stage.
+     * @param waitNanos How long the item waited before the stage began on it.
+     * @param serviceNanos How long the stage spent on it.
+     */
+    public synchronized void record(long waitNanos, long serviceNanos) {
+        count++;
+        totalWait += waitNanos;
+        maxWait = Math.max(maxWait, waitNanos);
+        totalService += serviceNanos;
+        maxService = Math.max(maxService, serviceNanos);
+    }
+
+    /**
+     * @return The name of the stage.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of items handled.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The mean time spent on an item, in milliseconds.
+     */
+    public synchronized double getMeanServiceMillis() {
+        return count == 0 ? 0 : totalService / 1e6 / count;
+    }
+
+    /**
+     * @return The mean time an item waited for the stage, in milliseconds.
+     */
+    public synchronized double getMeanWaitMillis() {
+        return count == 0 ? 0 : totalWait / 1e6 / count;
+    }
+
+    /**
+     * Return a one-line summary of the metrics.
+     */
+    public synchronized String toString() {
+        return String.format("%-10s n=%d service mean=%.3fms max=%.3fms wait mean=%.3fms max=%.3fms",
+                             name, count, getMeanServiceMillis(), maxService / 1e6,
+                             getMeanWaitMillis(), maxWait / 1e6);
+    }
+}
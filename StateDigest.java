@@ -0,0 +1,151 @@
+import java.util.Arrays;
+
+/**
+ * A 64-bit digest of the state of a field, kept up to date as the field
+ * changes, for checking that two ways of running a simulation give the
+ * same world.
+ *
+ * The digest is Zobrist-style: the XOR of one pseudo-random key per cell,
+ * chosen by the cell's position and contents - its species, sickness and
+ * plant, and the age and food level of its animal. Empty cells contribute
+ * nothing. When a cell changes, its old key is XORed out and its new one
+ * in, so each update costs the same however large the field is. The field
+ * makes an update whenever it places or clears a cell, grows plants or is
+ * told that an animal has changed; see Field.enableDigest().
+ *
+ * The keys are computed from the cell's position and contents with the
+ * SplitMix64 mixer rather than looked up in a table, so two fields of the
+ * same size in different processes give the same digest for the same
+ * state.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class StateDigest {
+
+    // Keep the kinds of key apart from one another.
+    private static final long STATE_SALT = 1L << 40;
+    private static final long AGE_SALT = 2L << 40;
+    private static final long FOOD_SALT = 3L << 40;
+
+    private final int width;
+    // The key each cell is contributing at present.
+    private final long[] keys;
+    private long digest;
+
+    /**
+     * Create the digest of an empty field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    StateDigest(int depth, int width) {
+        this.width = width;
+        keys = new long[depth * width];
+    }
+
+    /**
+     * Empty the digest, as when the field is cleared.
+     */
+    void reset() {
+        Arrays.fill(keys, 0);
+        digest = 0;
+    }
+
+    /**
+     * Load the whole contents of a field.
+     * @param field The field; must be this digest's size.
+     */
+    void rebuild(Field field) {
+        reset();
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                update(row, col, field.getObjectAt(row, col), field.getPlantAt(row, col) != null);
+            }
+        }
+    }
+
+    /**
+     * Record the new contents of a cell.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param animal The animal in the cell, or null.
+     * @param plant true if the cell has a plant.
+     */
+    void update(int row, int col, Animal animal, boolean plant) {
+        int index = row * width + col;
+        long key = keyOf(index, animal, plant);
+        digest ^= keys[index] ^ key;
+        keys[index] = key;
+    }
+
+    /**
+     * @return The digest of the whole field.
+     */
+    public long getDigest() {
+        return digest;
+    }
+
+    /**
+     * Return the key of a cell with the given contents.
+     * @param index The cell's position, row * width + col.
+     * @param animal The animal in the cell, or null.
+     * @param plant true if the cell has a plant.
+     * @return The key; 0 for an empty cell.
+     */
+    public static long keyOf(int index, Animal animal, boolean plant) {
+        byte state = FieldSnapshot.encode(animal, plant);
+        if (state == 0) {
+            return 0;
+        }
+        long base = index * 0x9e3779b97f4a7c15L;
+        long key = mix(base ^ (STATE_SALT + state));
+        if (animal != null) {
+            key ^= mix(base ^ (AGE_SALT + (animal.age & 0xffffffffL)));
+            key ^= mix(base ^ (FOOD_SALT + (animal.getFoodLevel() & 0xffffffffL)));
+        }
+        return key;
+    }
+
+    /**
+     * Work out the digest of a field from scratch, cell by cell.
+     * @param field The field.
+     * @return Its digest.
+     */
+    public static long of(Field field) {
+        return of(field, 0, field.getDepth(), 0);
+    }
+
+    /**
+     * Work out the digest of a band of rows of a field that holds part of
+     * a larger world, keyed by the cells' places in the world. The digests
+     * of bands that together cover a world combine by XOR into the digest
+     * of the whole world.
+     * @param field The field.
+     * @param firstRow The first row of the band.
+     * @param lastRow The row after the last one of the band.
+     * @param rowOffset The row of the world that is row 0 of the field.
+     * @return The digest of the band.
+     */
+    public static long of(Field field, int firstRow, int lastRow, int rowOffset) {
+        long digest = 0;
+        int width = field.getWidth();
+        for (int row = firstRow; row < lastRow; row++) {
+            for (int col = 0; col < width; col++) {
+                digest ^= keyOf((row + rowOffset) * width + col, field.getObjectAt(row, col),
+                                field.getPlantAt(row, col) != null);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * The finalizer of SplitMix64: spreads every bit of the input over
+     * the whole output.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
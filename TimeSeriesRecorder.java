@@ -0,0 +1,429 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Record population statistics after every step into a columnar file,
+ * so that they outlive the run.
+ *
+ * Each step is one row. The first column is the step number; then, for
+ * each species, the population, the infected count, the births and deaths
+ * in the step, and the mean of each gene trait (see LineageStore.Trait)
+ * over the living animals. Counts are ints and means are floats, so every
+ * value is four bytes.
+ *
+ * Rows are collected in chunks of primitive columns. A full chunk is
+ * handed to a writer thread, which copies it column by column into one
+ * buffer and writes it to a FileChannel; the simulation thread takes the
+ * next empty chunk from a small pool, so recording a step allocates
+ * nothing. If the writer falls behind and every chunk is waiting to be
+ * written, the simulation waits for it.
+ *
+ * File format, big-endian: int MAGIC, int VERSION, int number of columns,
+ * int rows per chunk, then for each column a type byte (TYPE_INT or
+ * TYPE_FLOAT) and its name (short length, ASCII). Then chunks follow to
+ * the end of the file: int number of rows, then each column's values for
+ * those rows in turn. exportCsv() turns a file into CSV.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class TimeSeriesRecorder implements FieldListener {
+
+    public static final int MAGIC = 0x53494d43; // "SIMC"
+    public static final int VERSION = 1;
+    public static final byte TYPE_INT = 'I';
+    public static final byte TYPE_FLOAT = 'F';
+
+    private static final Species[] SPECIES = Species.values();
+    private static final LineageStore.Trait[] TRAITS = LineageStore.Trait.values();
+    private static final int COUNTS = 4; // population, infected, births, deaths
+    private static final int PER_SPECIES = COUNTS + TRAITS.length;
+    private static final int COLUMNS = 1 + SPECIES.length * PER_SPECIES;
+    private static final int CHUNKS = 3;
+
+    private final DiseasePass population;
+    private final FileChannel channel;
+    private final int chunkRows;
+    private final BlockingQueue<Chunk> empty = new ArrayBlockingQueue<>(CHUNKS);
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(CHUNKS + 1);
+    private final Chunk end = new Chunk(0); // tells the writer to stop
+    private final Thread writer;
+    private volatile IOException failure;
+    private Chunk current;
+    private boolean closed;
+
+    // Indexed by species code.
+    private final int[] births = new int[8];
+    private final int[] deaths = new int[8];
+    private final int[] living = new int[8];
+    private final long[][] traitSums = new long[8][TRAITS.length];
+
+    /**
+     * One chunk of rows, column by column.
+     */
+    private static class Chunk {
+        final int[][] columns;
+        int rows;
+
+        Chunk(int capacity) {
+            columns = new int[COLUMNS][capacity];
+        }
+    }
+
+    /**
+     * Create a recorder writing to a new file, and start its writer.
+     * @param file The file; it is replaced if it exists.
+     * @param population Where the living and infected counts are kept.
+     * @param chunkRows The number of steps per chunk.
+     * @throws IOException If the file cannot be created.
+     */
+    public TimeSeriesRecorder(Path file, DiseasePass population, int chunkRows) throws IOException {
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("Chunks must hold at least one row");
+        }
+        this.population = population;
+        this.chunkRows = chunkRows;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader();
+        for (int i = 0; i < CHUNKS; i++) {
+            empty.add(new Chunk(chunkRows));
+        }
+        current = empty.remove();
+        writer = new Thread(this::write, "time-series-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return The names of the columns, in order.
+     */
+    public static List<String> columnNames() {
+        List<String> names = new ArrayList<>();
+        names.add("step");
+        for (Species species : SPECIES) {
+            String prefix = species.name().toLowerCase(Locale.ROOT) + ".";
+            names.add(prefix + "population");
+            names.add(prefix + "infected");
+            names.add(prefix + "births");
+            names.add(prefix + "deaths");
+            for (LineageStore.Trait trait : TRAITS) {
+                names.add(prefix + trait.name().toLowerCase(Locale.ROOT));
+            }
+        }
+        return names;
+    }
+
+    private static boolean isFloat(int column) {
+        return column > 0 && (column - 1) % PER_SPECIES >= COUNTS;
+    }
+
+    private void writeHeader() throws IOException {
+        List<String> names = columnNames();
+        int size = 16;
+        for (String name : names) {
+            size += 3 + name.length();
+        }
+        ByteBuffer header = ByteBuffer.allocate(size);
+        header.putInt(MAGIC).putInt(VERSION).putInt(COLUMNS).putInt(chunkRows);
+        for (int column = 0; column < COLUMNS; column++) {
+            byte[] name = names.get(column).getBytes(StandardCharsets.US_ASCII);
+            header.put(isFloat(column) ? TYPE_FLOAT : TYPE_INT);
+            header.putShort((short) name.length);
+            header.put(name);
+        }
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * Start counting from the animals already living, such as when the
+     * recorder is attached or the simulation is reset.
+     * @param animals The living animals.
+     */
+    public void track(List<Animal> animals) {
+        for (int code = 0; code < living.length; code++) {
+            living[code] = 0;
+            births[code] = 0;
+            deaths[code] = 0;
+            Arrays.fill(traitSums[code], 0);
+        }
+        for (Animal animal : animals) {
+            if (animal != null && animal.isAlive()) {
+                addTraits(animal, 1);
+            }
+        }
+    }
+
+    /**
+     * Forget the births and deaths counted so far, at the start of a step.
+     */
+    public void beginStep() {
+        Arrays.fill(births, 0);
+        Arrays.fill(deaths, 0);
+    }
+
+    /**
+     * Record the row of a step that has finished. Waits only if every
+     * chunk is waiting to be written.
+     * @param step The step.
+     */
+    public void stepFinished(int step) {
+        if (closed) {
+            return;
+        }
+        Chunk chunk = current;
+        int row = chunk.rows;
+        int[][] columns = chunk.columns;
+        columns[0][row] = step;
+        int column = 1;
+        for (Species species : SPECIES) {
+            int code = species.getCode();
+            columns[column++][row] = population.getPopulation(species);
+            columns[column++][row] = population.getInfected(species);
+            columns[column++][row] = births[code];
+            columns[column++][row] = deaths[code];
+            for (int trait = 0; trait < TRAITS.length; trait++) {
+                float mean = living[code] == 0 ? Float.NaN : (float) traitSums[code][trait] / living[code];
+                columns[column++][row] = Float.floatToRawIntBits(mean);
+            }
+        }
+        chunk.rows++;
+        if (chunk.rows == chunkRows) {
+            hand(chunk);
+            current = take();
+        }
+    }
+
+    /**
+     * Write what has been recorded, stop the writer and close the file.
+     * @throws IOException If writing failed at any point.
+     */
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (current.rows > 0) {
+                hand(current);
+            }
+            hand(end);
+            try {
+                writer.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void hand(Chunk chunk) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                full.put(chunk);
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Chunk take() {
+        boolean interrupted = false;
+        Chunk chunk;
+        while (true) {
+            try {
+                chunk = empty.take();
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return chunk;
+    }
+
+    /**
+     * The writer thread: write each full chunk, then return it to the pool.
+     * After a failure chunks are still returned, but not written.
+     */
+    private void write() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 + COLUMNS * chunkRows * 4);
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = full.take();
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            if (chunk == end) {
+                return;
+            }
+            if (failure == null) {
+                try {
+                    buffer.clear();
+                    buffer.putInt(chunk.rows);
+                    for (int[] column : chunk.columns) {
+                        for (int row = 0; row < chunk.rows; row++) {
+                            buffer.putInt(column[row]);
+                        }
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                catch (IOException e) {
+                    failure = e;
+                }
+            }
+            chunk.rows = 0;
+            empty.add(chunk);
+        }
+    }
+
+    private void addTraits(Animal animal, int sign) {
+        int code = Species.of(animal).getCode();
+        living[code] += sign;
+        String gene = animal.getGene();
+        for (int trait = 0; trait < TRAITS.length; trait++) {
+            traitSums[code][trait] += sign * TRAITS[trait].valueIn(gene);
+        }
+    }
+
+    @Override
+    public void animalBorn(Animal animal) {
+        births[Species.of(animal).getCode()]++;
+        addTraits(animal, 1);
+    }
+
+    @Override
+    public void animalDied(Animal animal) {
+        deaths[Species.of(animal).getCode()]++;
+        addTraits(animal, -1);
+    }
+
+    /**
+     * Write a columnar file out as CSV, one line per step with the column
+     * names as the first line.
+     * @param columnar The columnar file.
+     * @param csv The CSV file to write.
+     * @throws IOException If either file cannot be used, or the columnar
+     *                     file is not one.
+     */
+    public static void exportCsv(Path columnar, Path csv) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(columnar)));
+             Writer out = Files.newBufferedWriter(csv, StandardCharsets.US_ASCII)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(columnar + " is not a time series file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unknown time series version " + version);
+            }
+            int columns = in.readInt();
+            int chunkRows = in.readInt();
+            boolean[] floats = new boolean[columns];
+            for (int column = 0; column < columns; column++) {
+                floats[column] = in.readByte() == TYPE_FLOAT;
+                byte[] name = new byte[in.readShort()];
+                in.readFully(name);
+                out.write(column == 0 ? "" : ",");
+                out.write(new String(name, StandardCharsets.US_ASCII));
+            }
+            out.write('\n');
+            int[][] values = new int[columns][chunkRows];
+            int rows;
+            while ((rows = readRows(in)) > 0) {
+                for (int column = 0; column < columns; column++) {
+                    for (int row = 0; row < rows; row++) {
+                        values[column][row] = in.readInt();
+                    }
+                }
+                for (int row = 0; row < rows; row++) {
+                    for (int column = 0; column < columns; column++) {
+                        if (column > 0) {
+                            out.write(',');
+                        }
+                        if (floats[column]) {
+                            float value = Float.intBitsToFloat(values[column][row]);
+                            out.write(Float.isNaN(value) ? "" : String.format(Locale.ROOT, "%.3f", value));
+                        }
+                        else {
+                            out.write(Integer.toString(values[column][row]));
+                        }
+                    }
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the row count of the next chunk, or 0 at the end of the file.
+     */
+    private static int readRows(InputStream in) throws IOException {
+        int b0 = in.read();
+        if (b0 < 0) {
+            return 0;
+        }
+        int b1 = in.read(), b2 = in.read(), b3 = in.read();
+        if ((b1 | b2 | b3) < 0) {
+            throw new IOException("Time series file ends inside a chunk");
+        }
+        return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+
+    /**
+     * Record a simulation, or export a recording as CSV.
+     * @param args "record", file, depth, width and number of steps; or
+     *             "export", columnar file and CSV file.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("export")) {
+            exportCsv(Path.of(args[1]), Path.of(args[2]));
+            return;
+        }
+        Path file = Path.of(args.length > 1 ? args[1] : "population.simc");
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int width = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        int steps = args.length > 4 ? Integer.parseInt(args[4]) : 500;
+
+        Simulator simulator = new Simulator(depth, width);
+        TimeSeriesRecorder recorder = simulator.enableRecorder(file);
+        for (int i = 0; i < steps; i++) {
+            simulator.simulateOneStep();
+        }
+        recorder.close();
+        System.out.println("Recorded " + steps + " steps to " + file);
+    }
+}
@@ -0,0 +1,109 @@
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The grid kernels written with the Vector API, working on as many cells
+ * at once as the CPU's widest vector registers hold (16 to 64). Cells left
+ * over at the end of a range are handed to the scalar kernels.
+ *
+ * Needs the incubating jdk.incubator.vector module, both to compile and
+ * to run (--add-modules jdk.incubator.vector). GridKernels.get() falls
+ * back to ScalarKernels when it is missing.
+ *
+ * @author David J. Barnes, Michael Kölling and Jeffery Raphael
+ * @version 2025.02.10
+ */
+
+public class VectorKernels extends GridKernels {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+    private static final int CODES = FieldSnapshot.SPECIES_MASK + 1;
+
+    private final ScalarKernels tail = new ScalarKernels();
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+
+    @Override
+    public void histogram(MemorySegment cells, long offset, long count, long[] population, long[] infected) {
+        long length = SPECIES.length();
+        long whole = count - count % length;
+        long[] counted = new long[CODES];
+        long[] sick = new long[CODES];
+        for (long i = 0; i < whole; i += length) {
+            ByteVector cell = ByteVector.fromMemorySegment(SPECIES, cells, offset + i, ORDER);
+            ByteVector code = cell.and((byte) FieldSnapshot.SPECIES_MASK);
+            ByteVector sickCode = cell.and((byte) (FieldSnapshot.SPECIES_MASK | FieldSnapshot.SICK_FLAG));
+            // Empty cells are whatever is left over, so code 0 is not compared.
+            for (int c = 1; c < CODES; c++) {
+                counted[c] += code.eq((byte) c).trueCount();
+                sick[c] += sickCode.eq((byte) (c | FieldSnapshot.SICK_FLAG)).trueCount();
+            }
+            sick[0] += sickCode.eq((byte) FieldSnapshot.SICK_FLAG).trueCount();
+        }
+        long animals = 0;
+        for (int c = 1; c < CODES; c++) {
+            population[c] += counted[c];
+            infected[c] += sick[c];
+            animals += counted[c];
+        }
+        population[0] += whole - animals;
+        infected[0] += sick[0];
+        tail.histogram(cells, offset + whole, count - whole, population, infected);
+    }
+
+    @Override
+    public long countInfected(MemorySegment cells, long offset, long count) {
+        long length = SPECIES.length();
+        long whole = count - count % length;
+        long infected = 0;
+        for (long i = 0; i < whole; i += length) {
+            ByteVector cell = ByteVector.fromMemorySegment(SPECIES, cells, offset + i, ORDER);
+            infected += cell.and((byte) FieldSnapshot.SICK_FLAG).compare(VectorOperators.NE, 0).trueCount();
+        }
+        return infected + tail.countInfected(cells, offset + whole, count - whole);
+    }
+
+    @Override
+    public long fillPlants(MemorySegment state, long stateOffset,
+                           MemorySegment biomass, long biomassOffset, long count, byte plant) {
+        long length = SPECIES.length();
+        long whole = count - count % length;
+        long planted = 0;
+        for (long i = 0; i < whole; i += length) {
+            ByteVector cellState = ByteVector.fromMemorySegment(SPECIES, state, stateOffset + i, ORDER);
+            ByteVector cellBiomass = ByteVector.fromMemorySegment(SPECIES, biomass, biomassOffset + i, ORDER);
+            VectorMask<Byte> empty = cellState.eq((byte) 0).and(cellBiomass.eq((byte) 0));
+            if (empty.anyTrue()) {
+                cellBiomass.blend(plant, empty).intoMemorySegment(biomass, biomassOffset + i, ORDER);
+                planted += empty.trueCount();
+            }
+        }
+        return planted + tail.fillPlants(state, stateOffset + whole, biomass, biomassOffset + whole,
+                                         count - whole, plant);
+    }
+
+    @Override
+    public void pack(MemorySegment state, long stateOffset, MemorySegment biomass, long biomassOffset,
+                     MemorySegment out, long outOffset, long count) {
+        long length = SPECIES.length();
+        long whole = count - count % length;
+        ByteVector none = ByteVector.zero(SPECIES);
+        for (long i = 0; i < whole; i += length) {
+            ByteVector cellState = ByteVector.fromMemorySegment(SPECIES, state, stateOffset + i, ORDER);
+            ByteVector cellBiomass = ByteVector.fromMemorySegment(SPECIES, biomass, biomassOffset + i, ORDER);
+            ByteVector plantFlag = none.blend((byte) FieldSnapshot.PLANT_FLAG,
+                                              cellBiomass.compare(VectorOperators.NE, 0));
+            cellState.or(plantFlag).intoMemorySegment(out, outOffset + i, ORDER);
+        }
+        tail.pack(state, stateOffset + whole, biomass, biomassOffset + whole,
+                  out, outOffset + whole, count - whole);
+    }
+}
@@ -33,11 +33,17 @@ public class WildBoar extends Animal {
             age = 0;
             foodlevel = 10; // Start with full food level for boar 
         }
+        field.animalAged(this);
     }
     
     public WildBoar(Field field, Location location, Color color, String gene, boolean isMale) {
             super(field, location, color, gene, isMale);
     }
+
+    public WildBoar(Field field, Location location, Color color, String gene, boolean isMale,
+                    int age, int foodLevel, int sicknessDuration) {
+            super(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+    }
     
     /**
      * This is what the rabbit does most of the time - it runs 
@@ -47,16 +53,16 @@ public class WildBoar extends Animal {
     public void act(List<Animal> newWildBoars) {
         incrementAge();
         updateSickness(); // Handle sickness duration
-        spreadDisease(); // Spread disease to nearby animals
         if(isAlive()) {
             giveBirth(newWildBoars);            
             // Try to move into a free location.
-            Location newLocation = getField().getFreeAdjacentLocation(getLocation());
+            Location newLocation = findFreeLocation();
             if(newLocation != null) {
                 setLocation(newLocation);
             }
             else {
                 // if theres overcrowding.
+                FlightEvents.overcrowded(this);
                 setDead();
             }
         }
@@ -77,11 +83,13 @@ public class WildBoar extends Animal {
         Field field = getField();
         List<Location> free = field.getFreeAdjacentLocations(getLocation());
         int births = breed(); // Uses genetically defined breeding probability and litter size
+        int room = free.size();
         for (int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
             WildBoar young = (WildBoar) this.mateWith(this, field, loc); // Uses genetic crossover
             newWildBoars.add(young);
         }
+        FlightEvents.litter(this, births, Math.min(births, room));
     }
         
     @Override
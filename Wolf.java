@@ -10,7 +10,6 @@ import javafx.scene.paint.Color;
 public class Wolf extends Animal {
 
     private static final int PREY_FOOD_VALUE = 9;    
-    private int foodLevel;
 
     /**
      * Create a wolf. A wolf can be created as a new born (age zero
@@ -29,11 +28,17 @@ public class Wolf extends Animal {
             age = 0;
             foodLevel = PREY_FOOD_VALUE; //max food lvl for wolf
         }
+        field.animalAged(this);
     }
     
     public Wolf(Field field, Location location, Color color, String gene, boolean isMale) {
             super(field, location, color, gene, isMale);
     }
+
+    public Wolf(Field field, Location location, Color color, String gene, boolean isMale,
+                int age, int foodLevel, int sicknessDuration) {
+            super(field, location, color, gene, isMale, age, foodLevel, sicknessDuration);
+    }
     
     /**
      * Wolves hunt prey, age, breed, and die.
@@ -45,7 +50,6 @@ public class Wolf extends Animal {
         incrementHunger();
 
         if (isAlive()) {
-            spreadDisease(); // Only spread disease if the animal is still alive
             giveBirth(newWolves); // then it will attempt to reproduce
 
             // Move towards sources of food if found
@@ -53,17 +57,23 @@ public class Wolf extends Animal {
         
         if (newLocation == null) {
             // if thee isnt any food then move to a free location
-            newLocation = getField().getFreeAdjacentLocation(getLocation());
+            newLocation = findFreeLocation();
         }
 
         if (newLocation != null) {
             setLocation(newLocation); // Move to the new location
         } else {
+            FlightEvents.overcrowded(this);
             setDead(); // will die if theres overcrowding 
             }
         }
     }
 
+    @Override
+    public int getFullFoodLevel() {
+        return PREY_FOOD_VALUE;
+    }
+
     @Override
     protected int getMaxAge() {
         return maxAge; // Use max age corresponding to the species 
@@ -72,8 +82,12 @@ public class Wolf extends Animal {
     /**
      * Reduce the wolf's food level. It dies if it reaches zero.
      */
-    private void incrementHunger() {
+    @Override
+    protected void incrementHunger() {
         foodLevel--;
+        if (isAlive()) {
+            getField().animalAged(this);
+        }
         if (foodLevel <= 0) {
             setDead();
         }
@@ -97,6 +111,7 @@ public class Wolf extends Animal {
                 if (animal.isAlive()) {
                     animal.setDead();
                     foodLevel = animal.getTheFoodValue(); // Consume prey and gain food units
+                    field.animalAged(this);
                     field.place(new Plant(), where.getRow(), where.getCol());
                     return where;
                 }
@@ -114,11 +129,13 @@ public class Wolf extends Animal {
         Field field = getField();
         List<Location> free = field.getFreeAdjacentLocations(getLocation());
         int births = breed(); // Uses genetically defined breeding probability and litter size
+        int room = free.size();
         for (int b = 0; b < births && free.size() > 0; b++) {
             Location loc = free.remove(0);
             Wolf young = (Wolf) this.mateWith(this, field, loc); // Uses genetic crossover
             newWolves.add(young);
         }
+        FlightEvents.litter(this, births, Math.min(births, room));
     }
 
     